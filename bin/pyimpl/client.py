@@ -56,11 +56,15 @@ class IntegerSequence_proxy(object, demo.IntegerSequence):
             print "Error getting {0}({1}): {2}".format(self.name.id, index, val.message)
         elif (val._d == demo.t_int):
             print "{0}({1}) = {2}".format(self.name.id, index, val.intVal)
-        else:
+        elif (val._d == demo.t_string):
             s = val.stringVal
             if self.shorten and len(s) > 50:
                 s = s[:20] + "...[{0} digits skipped]...".format(len(s) - 40) + s[-20:]
             print "{0}({1}) = {2}".format(self.name.id, index, s)
+        else:
+            # 64-bit integer (t_longlong); checked last, since stubs generated
+            # from older IDL do not define the discriminator
+            print "{0}({1}) = {2}".format(self.name.id, index, val.longVal)
 
 class Client(object):
 
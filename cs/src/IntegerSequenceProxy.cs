@@ -95,6 +95,9 @@ namespace demo.impl {
 				case ResponseType.t_int:
 					Console.WriteLine("{0}({1}) = {2}", this, index, val.GetintVal());
 					break;
+				case ResponseType.t_longlong:
+					Console.WriteLine("{0}({1}) = {2}", this, index, val.GetlongVal());
+					break;
 				case ResponseType.t_string:
 					string str = val.GetstringVal();
 					if (this.ShortenNumbers && (str.Length > 50)) {
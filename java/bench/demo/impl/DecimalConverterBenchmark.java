@@ -0,0 +1,51 @@
+package demo.impl;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for conversion of big integers to decimal strings.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DecimalConverterBenchmark {
+
+	/** Bit length of converted numbers; 3470000 bits correspond to fib(5000000). */
+	@Param({ "1000", "10000", "100000", "1000000", "3470000" })
+	public int bits;
+
+	private BigInteger value;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.value = new BigInteger(this.bits, new Random(0)).setBit(this.bits - 1);
+	}
+
+	@Benchmark
+	public String divideAndConquer() {
+		return DecimalConverter.toString(this.value);
+	}
+
+	@Benchmark
+	public String bigIntegerToString() {
+		return this.value.toString();
+	}
+}
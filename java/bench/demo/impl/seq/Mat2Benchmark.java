@@ -0,0 +1,57 @@
+package demo.impl.seq;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for arithmetic of 2x2 matrices used by fib.java.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class Mat2Benchmark {
+
+	/** Exponent of the Fibonacci matrix; defines the size of matrix entries. */
+	@Param({ "1000", "10000", "100000", "1000000", "5000000" })
+	public int exponent;
+
+	private Mat2 base;
+
+	private Mat2 matrix;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.base = new Mat2(1, 1, 1, 0);
+		this.matrix = this.base.pow(this.exponent);
+	}
+
+	@Benchmark
+	public Mat2 multiply() {
+		return this.matrix.multiply(this.matrix);
+	}
+
+	@Benchmark
+	public Mat2 pow() {
+		return this.base.pow(this.exponent);
+	}
+
+	@Benchmark
+	public Mat2 cachedPow() {
+		return new MatrixPowerCache(this.base, FibonacciImpl.DEFAULT_CACHE_SIZE).pow(this.exponent);
+	}
+}
@@ -0,0 +1,92 @@
+package demo.impl.seq;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for computing members of the Java integer sequences. Calls go directly
+ * to <code>compute</code>, bypassing CORBA, the member cache and decimal conversion.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SequenceBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class FibonacciState {
+
+		@Param({ "1000", "10000", "100000", "1000000", "5000000" })
+		public int index;
+
+		/** Implementation without cached matrix powers, so each call computes all squares. */
+		public final FibonacciImpl matrix = new FibonacciImpl(0);
+
+		public final FibonacciDoublingImpl doubling = new FibonacciDoublingImpl();
+	}
+
+	@State(Scope.Benchmark)
+	public static class WarmFibonacciState {
+
+		@Param({ "1000", "10000", "100000", "1000000", "5000000" })
+		public int index;
+
+		/** Implementation with the default cache, which holds the powers after the first call. */
+		public final FibonacciImpl matrix = new FibonacciImpl();
+	}
+
+	@State(Scope.Benchmark)
+	public static class NaiveFibonacciState {
+
+		@Param({ "1000", "10000", "100000" })
+		public int index;
+
+		public final FibonacciNaiveImpl naive = new FibonacciNaiveImpl();
+	}
+
+	@State(Scope.Benchmark)
+	public static class PrimeState {
+
+		@Param({ "256", "512", "1024", "2048" })
+		public int bits;
+
+		public final RandomPrimeImpl primes = new RandomPrimeImpl();
+	}
+
+	@Benchmark
+	public BigInteger fibonacci(FibonacciState state) {
+		return state.matrix.compute(state.index);
+	}
+
+	@Benchmark
+	public BigInteger fibonacciWarmCache(WarmFibonacciState state) {
+		return state.matrix.compute(state.index);
+	}
+
+	@Benchmark
+	public BigInteger fibonacciDoubling(FibonacciState state) {
+		return state.doubling.compute(state.index);
+	}
+
+	@Benchmark
+	public BigInteger fibonacciNaive(NaiveFibonacciState state) {
+		return state.naive.compute(state.index);
+	}
+
+	@Benchmark
+	public BigInteger randomPrime(PrimeState state) throws Exception {
+		return state.primes.compute(state.bits);
+	}
+}
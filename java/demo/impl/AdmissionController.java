@@ -0,0 +1,397 @@
+package demo.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission control for computations of a single sequence. Each computation has a cost
+ * relative to the most expensive member of the sequence, so that 1.0 is the cost of computing 
+ * the member with the maximal index. At most the specified number of computations runs
+ * concurrently, and their total cost does not exceed the budget; a computation that exceeds
+ * the budget on its own runs only when no other computation is running. Computations that 
+ * are not {@linkplain #CHEAP_COST cheap} may occupy at most half of concurrency slots, 
+ * so cheap requests are admitted without waiting even during bursts of expensive ones.
+ * 
+ * Computations that do not fit into the cost budget are rejected immediately with 
+ * a retryable error, so clients can turn to another service without delay. Computations 
+ * waiting only for a free concurrency slot are put into queues of their clients, 
+ * which are served in the round-robin order, so a client sending many expensive requests
+ * does not delay cheap requests of other clients. If the queues are full, or a computation
+ * waits for longer than {@link #MAX_WAIT}, it is rejected as well. Computations of 
+ * asynchronous requests wait for admission without blocking a thread; see 
+ * {@link #acquire(String, double, Deadline, Callback)}.
+ */
+public class AdmissionController {
+
+	/** Default total cost of concurrent computations. */
+	public static final int DEFAULT_COST_BUDGET = 2;
+	
+	/** Default maximal number of computations waiting for admission. */
+	public static final int DEFAULT_QUEUE_SIZE = 64;
+	
+	/** Maximal relative cost of a cheap computation. */
+	public static final double CHEAP_COST = 0.001;
+	
+	/** Maximal time a computation waits for admission in milliseconds, unless its deadline is earlier. */
+	public static final long MAX_WAIT = 250;
+	
+	/** Executor to reject computations waiting for admission without a thread for too long. */
+	private static final ScheduledExecutorService timer =
+			Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "admission-timer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+	
+	/**
+	 * Receives the outcome of a request for admission that does not block the calling thread.
+	 */
+	public static interface Callback {
+		
+		/**
+		 * Called once the computation is admitted. The method is called while the controller
+		 * is locked, so it must not block; it should hand the computation over to another thread,
+		 * which releases the ticket once the computation completes.
+		 * 
+		 * @param ticket
+		 *    ticket of the admitted computation
+		 */
+		void admitted(Ticket ticket);
+		
+		/**
+		 * Called if the computation is rejected.
+		 * 
+		 * @param message
+		 *    reason of the rejection
+		 */
+		void rejected(String message);
+	}
+
+	/**
+	 * Permission to run a computation. The ticket must be {@linkplain #release() released}
+	 * once the computation completes.
+	 */
+	public final class Ticket {
+		
+		private final String client;
+		
+		private final double cost;
+		
+		/** Callback to notify of the admission, or <code>null</code> if a thread waits for it. */
+		private final Callback callback;
+		
+		private boolean admitted = false;
+		
+		private boolean released = false;
+		
+		private Ticket(String client, double cost, Callback callback) {
+			this.client = client;
+			this.cost = cost;
+			this.callback = callback;
+		}
+		
+		/** Returns the cost of the computation. */
+		public double cost() {
+			return this.cost;
+		}
+		
+		/**
+		 * Releases the resources occupied by the computation, letting waiting computations in.
+		 * Repeated calls have no effect.
+		 */
+		public void release() {
+			AdmissionController.this.release(this);
+		}
+	}
+	
+	private final int maxConcurrent;
+	
+	/** Maximal number of concurrent computations that are not cheap. */
+	private final int maxExpensive;
+	
+	private final double costBudget;
+	
+	private final int queueSize;
+	
+	/** Number of running computations. */
+	private int active = 0;
+	
+	/** Number of running computations that are not cheap. */
+	private int activeExpensive = 0;
+	
+	/** Total cost of running computations. */
+	private double activeCost = 0;
+	
+	/** Number of waiting computations. */
+	private int queued = 0;
+	
+	/** Queues of waiting computations by client, in the order the clients are served. */
+	private final Map<String, ArrayDeque<Ticket>> waiting = new LinkedHashMap<String, ArrayDeque<Ticket>>();
+	
+	private long admitted = 0;
+	
+	private long rejected = 0;
+	
+	/**
+	 * Creates an admission controller.
+	 * 
+	 * @param maxConcurrent
+	 *    maximal number of concurrent computations
+	 * @param costBudget
+	 *    maximal total cost of concurrent computations
+	 * @param queueSize
+	 *    maximal number of computations waiting for admission
+	 */
+	public AdmissionController(int maxConcurrent, double costBudget, int queueSize) {
+		if (maxConcurrent <= 0) {
+			throw new IllegalArgumentException("Number of concurrent computations must be positive");
+		}
+		this.maxConcurrent = maxConcurrent;
+		this.maxExpensive = Math.max(maxConcurrent / 2, 1);
+		this.costBudget = costBudget;
+		this.queueSize = queueSize;
+	}
+	
+	/**
+	 * Waits until a computation can be run.
+	 * 
+	 * @param client
+	 *    identifier of the client requesting the computation
+	 * @param cost
+	 *    relative cost of the computation
+	 * @param deadline
+	 *    deadline of the request
+	 * @return
+	 *    ticket of the admitted computation
+	 * @throws ServiceException
+	 *    if the computation is rejected
+	 */
+	public synchronized Ticket acquire(String client, double cost, Deadline deadline) 
+			throws ServiceException {
+		
+		Ticket ticket = new Ticket(client, cost, null);
+		this.enqueue(ticket);
+		this.dispatch();
+		if (ticket.admitted) return ticket;
+		
+		if ((this.queued > this.queueSize) || this.exceedsBudget(cost)) {
+			this.reject(ticket);
+			throw new ServiceException(IntegerSequenceImpl.BUSY_MESSAGE);
+		}
+		
+		long waitEnd = System.nanoTime() + 
+				TimeUnit.MILLISECONDS.toNanos(Math.min(MAX_WAIT, deadline.remainingMillis()));
+		while (!ticket.admitted) {
+			long remaining = TimeUnit.NANOSECONDS.toMillis(waitEnd - System.nanoTime());
+			if (remaining <= 0) {
+				this.reject(ticket);
+				throw new ServiceException(deadline.isExceeded() 
+						? "Deadline exceeded" : IntegerSequenceImpl.BUSY_MESSAGE);
+			}
+			
+			try {
+				this.wait(remaining);
+			} catch (InterruptedException e) {
+				if (ticket.admitted) {
+					this.release(ticket);
+				} else {
+					this.reject(ticket);
+				}
+				Thread.currentThread().interrupt();
+				throw new ServiceException("Computation interrupted", e);
+			}
+		}
+		return ticket;
+	}
+	
+	/**
+	 * Requests admission of a computation without waiting. If the computation cannot be run
+	 * at once, it waits in the same queues as other computations, and the callback is notified
+	 * once it is admitted or rejected.
+	 * 
+	 * @param client
+	 *    identifier of the client requesting the computation
+	 * @param cost
+	 *    relative cost of the computation
+	 * @param deadline
+	 *    deadline of the request
+	 * @param callback
+	 *    callback to notify of the admission or rejection
+	 */
+	public void acquire(String client, double cost, Deadline deadline, final Callback callback) {
+		final Ticket ticket = new Ticket(client, cost, callback);
+		String rejection = null;
+		synchronized (this) {
+			this.enqueue(ticket);
+			this.dispatch();
+			if (ticket.admitted) return;
+			
+			long wait = Math.min(MAX_WAIT, deadline.remainingMillis());
+			if ((this.queued > this.queueSize) || this.exceedsBudget(cost) || (wait <= 0)) {
+				this.reject(ticket);
+				rejection = deadline.isExceeded() ? "Deadline exceeded" : IntegerSequenceImpl.BUSY_MESSAGE;
+			} else {
+				final boolean deadlineFirst = (wait < MAX_WAIT);
+				timer.schedule(new Runnable() {
+					
+					public void run() {
+						if (expire(ticket)) {
+							callback.rejected(deadlineFirst 
+									? "Deadline exceeded" : IntegerSequenceImpl.BUSY_MESSAGE);
+						}
+					}
+				}, wait, TimeUnit.MILLISECONDS);
+			}
+		}
+		if (rejection != null) callback.rejected(rejection);
+	}
+	
+	/**
+	 * Rejects a computation that still waits for admission.
+	 * 
+	 * @return
+	 *    <code>true</code> if the computation was rejected, <code>false</code> if it was admitted
+	 */
+	private synchronized boolean expire(Ticket ticket) {
+		if (ticket.admitted) return false;
+		this.reject(ticket);
+		return true;
+	}
+	
+	private synchronized void release(Ticket ticket) {
+		if (!ticket.admitted || ticket.released) return;
+		ticket.released = true;
+		
+		this.active--;
+		if (ticket.cost > CHEAP_COST) this.activeExpensive--;
+		this.activeCost -= ticket.cost;
+		if (this.active == 0) this.activeCost = 0; // Prevent accumulation of rounding errors
+		this.dispatch();
+	}
+	
+	private void enqueue(Ticket ticket) {
+		ArrayDeque<Ticket> queue = this.waiting.get(ticket.client);
+		if (queue == null) {
+			queue = new ArrayDeque<Ticket>();
+			this.waiting.put(ticket.client, queue);
+		}
+		queue.add(ticket);
+		this.queued++;
+	}
+	
+	/**
+	 * Removes a waiting ticket.
+	 */
+	private void reject(Ticket ticket) {
+		ArrayDeque<Ticket> queue = this.waiting.get(ticket.client);
+		if ((queue != null) && queue.remove(ticket)) {
+			this.queued--;
+			if (queue.isEmpty()) this.waiting.remove(ticket.client);
+		}
+		this.rejected++;
+		// Computations queued after the rejected one may fit now
+		this.dispatch();
+	}
+	
+	/**
+	 * Checks whether a computation does not fit into the cost budget at the moment,
+	 * regardless of free concurrency slots.
+	 */
+	private boolean exceedsBudget(double cost) {
+		return (this.active > 0) && (cost > CHEAP_COST) && (this.activeCost + cost > this.costBudget);
+	}
+	
+	private boolean fits(double cost) {
+		if (this.active == 0) return true;
+		if (this.active >= this.maxConcurrent) return false;
+		if (cost <= CHEAP_COST) return true;
+		return (this.activeExpensive < this.maxExpensive) && (this.activeCost + cost <= this.costBudget);
+	}
+	
+	/**
+	 * Admits waiting computations that fit into the limits. Clients are visited
+	 * in the round-robin order; each visit admits at most one computation of the client.
+	 */
+	private void dispatch() {
+		List<Ticket> asyncAdmitted = new ArrayList<Ticket>();
+		boolean progress = true;
+		while (progress && (this.queued > 0)) {
+			progress = false;
+			List<String> served = new ArrayList<String>();
+			
+			Iterator<Map.Entry<String, ArrayDeque<Ticket>>> it = this.waiting.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<String, ArrayDeque<Ticket>> entry = it.next();
+				ArrayDeque<Ticket> queue = entry.getValue();
+				if (!this.fits(queue.peek().cost)) continue;
+				
+				Ticket ticket = queue.poll();
+				ticket.admitted = true;
+				this.active++;
+				if (ticket.cost > CHEAP_COST) this.activeExpensive++;
+				this.activeCost += ticket.cost;
+				this.queued--;
+				this.admitted++;
+				progress = true;
+				if (ticket.callback != null) asyncAdmitted.add(ticket);
+				
+				if (queue.isEmpty()) {
+					it.remove();
+				} else {
+					served.add(entry.getKey());
+				}
+			}
+			
+			// Move served clients to the end of the round
+			for (String client : served) {
+				this.waiting.put(client, this.waiting.remove(client));
+			}
+		}
+		this.notifyAll();
+		for (Ticket ticket : asyncAdmitted) {
+			ticket.callback.admitted(ticket);
+		}
+	}
+	
+	/** Returns the number of running computations. */
+	public synchronized int activeCount() {
+		return this.active;
+	}
+	
+	/** Returns the total relative cost of running computations. */
+	public synchronized double activeCost() {
+		return this.activeCost;
+	}
+	
+	/** Returns the number of computations waiting for admission. */
+	public synchronized int queueDepth() {
+		return this.queued;
+	}
+	
+	/** Returns the number of admitted computations. */
+	public synchronized long admittedCount() {
+		return this.admitted;
+	}
+	
+	/** Returns the number of rejected computations. */
+	public synchronized long rejectedCount() {
+		return this.rejected;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return String.format("%d/%d running, cost %.2f/%.2f, %d/%d queued", this.active, 
+				this.maxConcurrent, this.activeCost, this.costBudget, this.queued, this.queueSize);
+	}
+}
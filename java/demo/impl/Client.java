@@ -1,11 +1,20 @@
 package demo.impl;
 
+import java.io.BufferedWriter;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.logging.LogManager;
 
 import org.omg.CORBA.SystemException;
 
+import demo.IntegerSequence;
+import demo.SequenceError;
+
 
 public final class Client {
 
@@ -13,6 +22,8 @@ public final class Client {
 	private static enum Mode {
 		/** Query an integer sequence implementation. */
 		QUERY,
+		/** Send concurrent requests to an implementation and measure performance. */
+		BENCH,
 		/** List implementations. */
 		LIST,
 		/** Print help message. */
@@ -21,6 +32,8 @@ public final class Client {
 	
 	private static final String USAGE =
 		"Usage: client [option...] (sequence-ID | service-ID) index index...\n" +
+		"       client --range [option...] (sequence-ID | service-ID) start count [step]\n" +
+		"       client --bench [bench-option...] (sequence-ID | service-ID) index index...\n" +
 		"       client (--list | --help)\n" +
 		"\n" +
 		"Retrieves members of integer sequences using CORBA remoting.\n" +
@@ -28,6 +41,9 @@ public final class Client {
 		"Sequence ID is the identifier of an integer sequence, e.g. 'fib' (Fibonacci numbers).\n" +
 		"Service ID is the identifier of a particular implementation of a sequence,\n" +
 		"which consists of a sequence ID, dot '.', and a kind, e.g. 'pow3.naive-py'.\n" +
+		"If a sequence ID matches several services, batch, separate and benchmark\n" +
+		"requests are balanced among them, preferring services with lower latency\n" +
+		"and temporarily excluding failing ones.\n" +
 		"\n" +
 		"Indices are non-negative integers. Indexing starts with zero; e.g.,\n" +
 		"fib(0) = 0 and fib(1) = 1.\n" +
@@ -39,14 +55,72 @@ public final class Client {
 		"         Perform a batch request for all indices (default).\n" +
 		"    --short\n" +
 		"         Print only 20 first and 20 last digits of received integers.\n" +
+		"    --async\n" +
+		"         Submit all requests at once without blocking and print numbers\n" +
+		"         as the service delivers them.\n" +
+		"    --stream\n" +
+		"         Retrieve each number in chunks and print digits as they arrive.\n" +
+		"    --output FILE\n" +
+		"         With --stream or --range, write numbers to the specified file\n" +
+		"         instead of stdout.\n" +
+		"    --range\n" +
+		"         Retrieve members with indices start, start + step, ... (count members\n" +
+		"         in total; step is 1 by default). The range is not limited by the maximal\n" +
+		"         size of a query; members are retrieved page by page.\n" +
+		"    --decimal\n" +
+		"         Receive numbers as decimal strings even if the service supports\n" +
+		"         the more compact binary format.\n" +
+		"    --timeout MS\n" +
+		"         Deadline for each request in milliseconds. Java services abort\n" +
+		"         computations that exceed the deadline and respond with an error.\n" +
+		"         Responses to asynchronous requests are awaited until the deadline\n" +
+		"         (by default, for 60 seconds); undelivered responses are reported.\n" +
+		"    --bench\n" +
+		"         Send concurrent single-index requests for a period of time and report\n" +
+		"         throughput, errors and latency percentiles instead of printing values.\n" +
 		"    --list\n" +
 		"         Print the list of registered implementations and exit.\n" +
 		"    --help\n" +
 		"         Print this help message and exit.\n" +
 		"\n" +
+		"Benchmark options:\n" +
+		"    --threads N\n" +
+		"         Number of concurrent client threads (default: 1).\n" +
+		"    --rate R\n" +
+		"         Target total rate in requests per second. If specified, requests are sent\n" +
+		"         on a fixed schedule, and latencies are measured from the scheduled time\n" +
+		"         (correcting for coordinated omission). By default, each thread sends\n" +
+		"         the next request right after receiving a response.\n" +
+		"    --duration S\n" +
+		"         Duration of the benchmark in seconds (default: 10).\n" +
+		"    --hedge P\n" +
+		"         If several services match the sequence ID, send a duplicate request\n" +
+		"         to another service when a request takes longer than the P-th percentile\n" +
+		"         of recent latencies, and use the first response.\n" +
+		"    --hedge-budget F\n" +
+		"         Maximal share of hedged requests (default: 0.05).\n" +
+		"    --dist (uniform | zipf | range)\n" +
+		"         Distribution of requested indices: uniform over specified indices (default),\n" +
+		"         skewed towards the first specified indices, or uniform over the range\n" +
+		"         between the minimal and maximal specified index.\n" +
+		"\n" +
 		"Examples:\n" +
 		"    client fib 5 6 7\n" +
-		"    client --seq --short primes.py 10000 20000";
+		"    client --seq --short primes.py 10000 20000\n" +
+		"    client --range --output fib.txt fib.java 0 100000\n" +
+		"    client --bench --threads 8 --rate 200 --dist range fib.java 0 10000";
+	
+	/** Maximal number of digits retrieved in a single call in the streaming mode. */
+	private static final int STREAM_CHUNK = 1 << 16;
+	
+	/** Maximal number of members retrieved in a single call in the range mode. */
+	private static final int RANGE_PAGE = 1000;
+	
+	/** Time to wait for responses to asynchronous requests without a timeout, in milliseconds. */
+	private static final long ASYNC_WAIT = 60000;
+	
+	/** Additional time to wait for responses to asynchronous requests after their deadline. */
+	private static final long ASYNC_GRACE = 1000;
 	
 	private static final String DELIMITER = "--------------------------------------------------";
 
@@ -77,6 +151,42 @@ public final class Client {
 	/** Shorten long numbers in output? */
 	private boolean shortenNumbers = false;
 	
+	/** Submit asynchronous requests? */
+	private boolean async = false;
+	
+	/** Retrieve numbers in chunks? */
+	private boolean stream = false;
+	
+	/** Retrieve a range of members instead of separate indices? */
+	private boolean range = false;
+	
+	/** Deadline for each request in milliseconds, or 0 if requests are not limited in time. */
+	private long timeout = 0;
+	
+	/** File to write streamed numbers to, or <code>null</code> for stdout. */
+	private String outputFile = null;
+	
+	/** Request numbers in the binary format if the service supports it? */
+	private boolean preferBinary = true;
+	
+	/** Percentile of latencies after which requests are hedged, or 0 if hedging is off. */
+	private double hedgePercentile = 0;
+	
+	/** Maximal share of hedged requests. */
+	private double hedgeBudget = 0.05;
+	
+	/** Number of concurrent threads in the benchmark mode. */
+	private int benchThreads = 1;
+	
+	/** Target request rate in the benchmark mode, or 0 for sending requests without delays. */
+	private double benchRate = 0;
+	
+	/** Duration of the benchmark in seconds. */
+	private int benchDuration = 10;
+	
+	/** Distribution of indices in the benchmark mode. */
+	private LoadGenerator.Distribution benchDistribution = LoadGenerator.Distribution.UNIFORM;
+	
 	/** Directory containing integer sequence services. */
 	private final IntegerSequenceDir dir;
 	
@@ -117,6 +227,41 @@ public final class Client {
 				this.batch = true;
 			} else if (arg.equals("--short")) {
 				this.shortenNumbers = true;
+			} else if (arg.equals("--async")) {
+				this.async = true;
+			} else if (arg.equals("--stream")) {
+				this.stream = true;
+			} else if (arg.equals("--range")) {
+				this.range = true;
+			} else if (arg.equals("--output")) {
+				this.outputFile = optionValue(args, ++argi);
+			} else if (arg.equals("--decimal")) {
+				this.preferBinary = false;
+			} else if (arg.equals("--timeout")) {
+				this.timeout = (long) parseNumber(arg, optionValue(args, ++argi), 1);
+				DeadlineInterceptor.setRequestTimeout(this.timeout);
+			} else if (arg.equals("--bench")) {
+				this.mode = Mode.BENCH;
+			} else if (arg.equals("--threads")) {
+				this.benchThreads = (int) parseNumber(arg, optionValue(args, ++argi), 1);
+			} else if (arg.equals("--rate")) {
+				this.benchRate = parseNumber(arg, optionValue(args, ++argi), 0);
+			} else if (arg.equals("--duration")) {
+				this.benchDuration = (int) parseNumber(arg, optionValue(args, ++argi), 1);
+			} else if (arg.equals("--hedge")) {
+				this.hedgePercentile = parseNumber(arg, optionValue(args, ++argi), 0);
+				if (this.hedgePercentile >= 100) {
+					throw new CLIArgumentException("Hedging percentile must be less than 100.");
+				}
+			} else if (arg.equals("--hedge-budget")) {
+				this.hedgeBudget = parseNumber(arg, optionValue(args, ++argi), 0);
+			} else if (arg.equals("--dist")) {
+				String value = optionValue(args, ++argi);
+				try {
+					this.benchDistribution = LoadGenerator.Distribution.valueOf(value.toUpperCase());
+				} catch (IllegalArgumentException e) {
+					throw new CLIArgumentException("Invalid index distribution: " + value + ".");
+				}
 			} else if (arg.equals("--list")) {
 				this.mode = Mode.LIST;
 				return;
@@ -133,11 +278,17 @@ public final class Client {
 		if (argi == args.length) {
 			throw new CLIArgumentException("Sequence name not specified");
 		}
+		if ((this.mode == Mode.BENCH) && (argi == args.length - 1)) {
+			throw new CLIArgumentException("No indices specified for the benchmark.");
+		}
 		this.sequenceName = args[argi++];
 		
 		indices = new int[args.length - argi];
 		
-		if (indices.length > demo.MAX_QUERY_SIZE.value) {
+		if (this.range && ((indices.length < 2) || (indices.length > 3))) {
+			throw new CLIArgumentException("Specify start, count and optionally step of the range.");
+		}
+		if (!this.range && !this.async && (indices.length > demo.MAX_QUERY_SIZE.value)) {
 			throw new CLIArgumentException(String.format(
 					"Too many indices specified. Specify no more than %d", 
 					demo.MAX_QUERY_SIZE.value));
@@ -154,6 +305,46 @@ public final class Client {
 		}
 	}
 	
+	/**
+	 * Returns the value of an option.
+	 * 
+	 * @param args
+	 *    CLI arguments
+	 * @param argi
+	 *    position of the value
+	 * @throws CLIArgumentException
+	 *    if the value is missing
+	 */
+	private static String optionValue(String[] args, int argi) throws CLIArgumentException {
+		if (argi >= args.length) {
+			throw new CLIArgumentException("Value for " + args[argi - 1] + " not specified.");
+		}
+		return args[argi];
+	}
+	
+	/**
+	 * Parses a numeric value of an option.
+	 * 
+	 * @param option
+	 *    name of the option
+	 * @param value
+	 *    value to parse
+	 * @param min
+	 *    minimal allowed value
+	 * @throws CLIArgumentException
+	 *    if the value is not a number or is less than the minimal value
+	 */
+	private static double parseNumber(String option, String value, double min) 
+			throws CLIArgumentException {
+		try {
+			double number = Double.parseDouble(value);
+			if (!(number >= min)) throw new NumberFormatException();
+			return number;
+		} catch (NumberFormatException e) {
+			throw new CLIArgumentException("Invalid value for " + option + ": " + value + ".");
+		}
+	}
+	
 	/** 
 	 * Lists summary for all integer sequence implementations registered in the system. 
 	 */
@@ -161,11 +352,19 @@ public final class Client {
 		Collection<Name> names = dir.serviceNames();
 		System.out.println("Registered sequence implementations:");
 		
-		for (Name name : names) {
+		for (final Name name : names) {
 			System.out.println(DELIMITER);
 			try {
-				demo.IntegerSequence reference = dir.resolve(name);
-				printInfo(reference, name);
+				// Retrieve all info first, so that output is not garbled if the service fails
+				String info = dir.invoke(name, new ServiceDirectory.Invocation<IntegerSequence, String>() {
+					
+					public String invoke(IntegerSequence service) {
+						return String.format("Name: %s\nMaximal supported index: %d\nDescription:\n%s",
+								service.name(), service.maxIndex(), service.description());
+					}
+				});
+				System.out.format("Sequence ID: %s, kind: %s\n", name.id, name.kind);
+				System.out.println(info);
 			} catch (ServiceException e) {
 				printErroneousInfo(e, name);
 			}
@@ -184,41 +383,218 @@ public final class Client {
 	}
 	
 	/**
-	 * Requests members from a remote integer sequence service.
+	 * Connects to a remote integer sequence service.
 	 * 
+	 * @param name
+	 *    name of the service
 	 * @throws ServiceException
-	 *    if a CORBA-related error occurs during operation
+	 *    if the service is not available
 	 */
-	private void querySequence() throws ServiceException {
+	private IntegerSequenceProxy connect(final Name name) throws ServiceException {
+		// References are not checked on resolution; the first call to the service 
+		// reveals whether it is alive
+		return dir.invoke(name, new ServiceDirectory.Invocation<IntegerSequence, IntegerSequenceProxy>() {
+			
+			public IntegerSequenceProxy invoke(IntegerSequence service) throws ServiceException {
+				IntegerSequenceProxy proxy = new IntegerSequenceProxy(service, name, 
+						shortenNumbers, preferBinary);
+				System.out.format("Connected to service '%s' (CORBA name: %s)\n", 
+						proxy.name(), proxy.corbaName);
+				return proxy;
+			}
+		});
+	}
+	
+	/**
+	 * Connects to a remote integer sequence service matching the sequence name.
+	 * 
+	 * @throws ServiceException
+	 *    if there are no available matching services
+	 */
+	private IntegerSequenceProxy connect() throws ServiceException {
 		System.out.format("Getting service by sequence name '%s'...\n", this.sequenceName);
 		
-		IntegerSequenceProxy proxy = null;
 		for (Name name : dir.serviceNames()) {
 			if (this.matches(name)) {
 				try {
-					proxy = new IntegerSequenceProxy(dir.resolve(name), name, shortenNumbers);
-					break;
+					return this.connect(name);
 				} catch (ServiceException e) {
 					System.err.format("Error accessing service %s\n", name);
-					proxy = null;
 				}
 			}
 		}
 
-		if (proxy == null) {
+		throw new ServiceException(String.format("No available services that match the name '%s'", 
+				this.sequenceName));
+	}
+	
+	/**
+	 * Connects to all remote integer sequence services matching the sequence name
+	 * and creates a router to balance requests among them.
+	 * 
+	 * @param printing
+	 *    should the router send requests through proxies printing received numbers,
+	 *    or directly to the services?
+	 * @throws ServiceException
+	 *    if there are no available matching services
+	 */
+	private ServiceRouter connectAll(boolean printing) throws ServiceException {
+		System.out.format("Getting services by sequence name '%s'...\n", this.sequenceName);
+		
+		List<ServiceRouter.Replica> replicas = new ArrayList<ServiceRouter.Replica>();
+		for (Name name : dir.serviceNames()) {
+			if (this.matches(name)) {
+				try {
+					IntegerSequenceProxy proxy = this.connect(name);
+					replicas.add(new ServiceRouter.Replica(name, printing ? proxy : proxy.reference()));
+				} catch (ServiceException e) {
+					System.err.format("Error accessing service %s\n", name);
+				}
+			}
+		}
+		
+		if (replicas.isEmpty()) {
 			throw new ServiceException(String.format("No available services that match the name '%s'", 
 					this.sequenceName));
 		}
-		System.out.format("Connected to service '%s' (CORBA name: %s)\n", proxy.name(), proxy.corbaName);
-
+		if (replicas.size() > 1) {
+			System.out.format("Balancing requests among %d services\n", replicas.size());
+		}
+		return new ServiceRouter(replicas);
+	}
+	
+	/**
+	 * Requests members from a remote integer sequence service.
+	 * 
+	 * @throws ServiceException
+	 *    if a CORBA-related error occurs during operation
+	 */
+	private void querySequence() throws ServiceException {
+		if (this.stream) {
+			this.streamSequence(this.connect());
+			return;
+		} else if (this.range) {
+			this.rangeSequence(this.connect());
+			return;
+		}
+		
 		try {
-			if (batch) {
-				proxy.numbers(this.indices);
+			if (this.async) {
+				this.connect().queryAsync(this.indices, 
+						(this.timeout > 0) ? this.timeout + ASYNC_GRACE : ASYNC_WAIT);
+			} else if (batch) {
+				this.connectAll(true).numbers(this.indices);
 			} else {
-				for (int idx : this.indices) proxy.number(idx);
+				ServiceRouter router = this.connectAll(true);
+				for (int idx : this.indices) router.number(idx);
+			}
+		} catch (SystemException e) {
+			throw responseError(e);
+		} catch (InterruptedException e) {
+			throw new ServiceException("Interrupted waiting for responses", e);
+		}
+	}
+	
+	/**
+	 * Retrieves members from a remote integer sequence service in chunks.
+	 * 
+	 * @param proxy
+	 *    proxy for the service
+	 * @throws ServiceException
+	 *    if a CORBA-related or I/O error occurs during operation
+	 */
+	private void streamSequence(IntegerSequenceProxy proxy) throws ServiceException {
+		Writer out = null;
+		try {
+			out = (this.outputFile == null) 
+					? new OutputStreamWriter(System.out) 
+					: new BufferedWriter(new FileWriter(this.outputFile));
+			for (int idx : this.indices) {
+				try {
+					proxy.streamNumber(idx, out, STREAM_CHUNK);
+				} catch (SequenceError e) {
+					System.out.format("Error getting %s(%s): %s\n", proxy.corbaName.id, idx, e.message);
+				}
 			}
+		} catch (IOException e) {
+			throw new ServiceException("Error writing numbers", e);
 		} catch (SystemException e) {
-			throw new ServiceException("Error processing response", e);
+			throw responseError(e);
+		} finally {
+			if ((out != null) && (this.outputFile != null)) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					// Nothing to do
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Wraps an exception thrown by a remote operation; rejections because of overload
+	 * are reported with a message for the user.
+	 */
+	private static ServiceException responseError(SystemException e) {
+		return ServiceDirectory.isBusy(e) 
+				? new ServiceException(demo.BUSY_MESSAGE.value)
+				: new ServiceException("Error processing response", e);
+	}
+	
+	/**
+	 * Retrieves a range of members from a remote integer sequence service.
+	 * 
+	 * @param proxy
+	 *    proxy for the service
+	 * @throws ServiceException
+	 *    if a CORBA-related or I/O error occurs during operation
+	 */
+	private void rangeSequence(IntegerSequenceProxy proxy) throws ServiceException {
+		int start = this.indices[0], count = this.indices[1];
+		int step = (this.indices.length > 2) ? this.indices[2] : 1;
+		
+		Writer out = null;
+		try {
+			if (this.outputFile != null) {
+				out = new BufferedWriter(new FileWriter(this.outputFile));
+			}
+			proxy.queryRange(start, count, step, out, RANGE_PAGE);
+		} catch (SequenceError e) {
+			System.out.format("Error getting range of %s: %s\n", proxy.corbaName.id, e.message);
+		} catch (IOException e) {
+			throw new ServiceException("Error writing numbers", e);
+		} catch (SystemException e) {
+			throw responseError(e);
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					// Nothing to do
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Sends concurrent requests to a remote integer sequence service and reports performance.
+	 * 
+	 * @throws ServiceException
+	 *    if a CORBA-related error occurs while connecting to the service
+	 */
+	private void benchSequence() throws ServiceException {
+		ServiceRouter router = this.connectAll(false);
+		router.setHedging(this.hedgePercentile, this.hedgeBudget);
+		LoadGenerator generator = new LoadGenerator(router, this.sequenceName, 
+				this.indices, this.benchDistribution, this.benchThreads, this.benchRate, 
+				this.benchDuration);
+		try {
+			generator.run();
+		} catch (InterruptedException e) {
+			throw new ServiceException("Benchmark interrupted", e);
+		}
+		if (router.replicas().size() > 1) {
+			router.printStats();
 		}
 	}
 	
@@ -233,6 +609,9 @@ public final class Client {
 			case QUERY:
 				this.querySequence();
 				return;
+			case BENCH:
+				this.benchSequence();
+				return;
 			case LIST:
 				this.listServices();
 				return;
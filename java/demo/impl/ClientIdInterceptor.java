@@ -0,0 +1,168 @@
+package demo.impl;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+
+import org.omg.CORBA.Any;
+import org.omg.CORBA.BAD_PARAM;
+import org.omg.CORBA.LocalObject;
+import org.omg.CORBA.ORB;
+import org.omg.CORBA.TCKind;
+import org.omg.IOP.ServiceContext;
+import org.omg.PortableInterceptor.ClientRequestInfo;
+import org.omg.PortableInterceptor.ClientRequestInterceptor;
+import org.omg.PortableInterceptor.Current;
+import org.omg.PortableInterceptor.CurrentHelper;
+import org.omg.PortableInterceptor.ForwardRequest;
+import org.omg.PortableInterceptor.InvalidSlot;
+import org.omg.PortableInterceptor.ORBInitInfo;
+import org.omg.PortableInterceptor.ORBInitInfoPackage.DuplicateName;
+import org.omg.PortableInterceptor.ORBInitInfoPackage.InvalidName;
+import org.omg.PortableInterceptor.ORBInitializer;
+import org.omg.PortableInterceptor.ServerRequestInfo;
+import org.omg.PortableInterceptor.ServerRequestInterceptor;
+
+/**
+ * Identifies client processes to services. The client part attaches the identifier 
+ * of the process (e.g., <code>1234@host</code>) to outgoing requests in a service context;
+ * the server part makes it available to servants with {@link #requestClient()}, 
+ * so that services can treat clients fairly.
+ * 
+ * <p>The interceptor is registered with the ORB as an {@link ORBInitializer}.</p>
+ */
+public class ClientIdInterceptor extends LocalObject 
+		implements ORBInitializer, ClientRequestInterceptor, ServerRequestInterceptor {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Identifier of the service context with the client identifier. */
+	public static final int CONTEXT_ID = 0x49535143; // "ISQC"
+	
+	/** Identifier of clients that do not identify themselves. */
+	public static final String ANONYMOUS = "";
+	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/** Identifier of this process. */
+	private static final byte[] processId = 
+			ManagementFactory.getRuntimeMXBean().getName().getBytes(UTF8);
+	
+	/** Current object of portable interceptors. */
+	private static volatile Current piCurrent = null;
+	
+	/** Slot in the current object storing the client identifier. */
+	private static volatile int slot = -1;
+	
+	/**
+	 * Returns the identifier of the client that has sent the request processed 
+	 * by the current thread.
+	 * 
+	 * @return
+	 *    client identifier, or {@link #ANONYMOUS} if the thread does not process a request
+	 *    or the client has not identified itself
+	 */
+	public static String requestClient() {
+		Current current = piCurrent;
+		if (current == null) return ANONYMOUS;
+		
+		try {
+			Any any = current.get_slot(slot);
+			if (any.type().kind() == TCKind.tk_string) {
+				return any.extract_string();
+			}
+		} catch (InvalidSlot e) {
+			// Fall through
+		}
+		return ANONYMOUS;
+	}
+	
+	@Override
+	public String name() {
+		return "client-id";
+	}
+
+	@Override
+	public void destroy() {
+	}
+
+	// ORBInitializer
+
+	@Override
+	public void pre_init(ORBInitInfo info) {
+		try {
+			slot = info.allocate_slot_id();
+			info.add_client_request_interceptor(this);
+			info.add_server_request_interceptor(this);
+		} catch (DuplicateName e) {
+			throw new IllegalStateException("Interceptor is already registered", e);
+		}
+	}
+
+	@Override
+	public void post_init(ORBInitInfo info) {
+		try {
+			piCurrent = CurrentHelper.narrow(info.resolve_initial_references("PICurrent"));
+		} catch (InvalidName e) {
+			throw new IllegalStateException("Cannot resolve interceptor current", e);
+		}
+	}
+	
+	// ClientRequestInterceptor
+
+	@Override
+	public void send_request(ClientRequestInfo ri) {
+		ri.add_request_service_context(new ServiceContext(CONTEXT_ID, processId), true);
+	}
+
+	@Override
+	public void send_poll(ClientRequestInfo ri) {
+	}
+
+	@Override
+	public void receive_reply(ClientRequestInfo ri) {
+	}
+
+	@Override
+	public void receive_exception(ClientRequestInfo ri) {
+	}
+
+	@Override
+	public void receive_other(ClientRequestInfo ri) {
+	}
+
+	// ServerRequestInterceptor
+	
+	@Override
+	public void receive_request_service_contexts(ServerRequestInfo ri) throws ForwardRequest {
+		ServiceContext context;
+		try {
+			context = ri.get_request_service_context(CONTEXT_ID);
+		} catch (BAD_PARAM e) {
+			return; // Anonymous client
+		}
+		
+		Any any = ORB.init().create_any();
+		any.insert_string(new String(context.context_data, UTF8));
+		try {
+			ri.set_slot(slot, any);
+		} catch (InvalidSlot e) {
+			throw new IllegalStateException("Invalid slot for client identifier", e);
+		}
+	}
+
+	@Override
+	public void receive_request(ServerRequestInfo ri) {
+	}
+
+	@Override
+	public void send_reply(ServerRequestInfo ri) {
+	}
+
+	@Override
+	public void send_exception(ServerRequestInfo ri) {
+	}
+
+	@Override
+	public void send_other(ServerRequestInfo ri) {
+	}
+}
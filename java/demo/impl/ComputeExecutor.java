@@ -0,0 +1,197 @@
+package demo.impl;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded executor for computations of sequence members. Requests that need 
+ * a computation are handed over from ORB dispatch threads to this executor, so the number
+ * of concurrent computations does not depend on the threading model of the ORB,
+ * and requests that can be served from caches are not blocked by expensive computations.
+ * 
+ * At most the specified number of tasks runs concurrently; at most the specified number
+ * of tasks waits for execution, and further tasks are rejected.
+ * 
+ * Computations split into parallel parts (product trees, sieving of segments, primality tests,
+ * decimal conversion, members of batch requests) run the parts in the {@linkplain #parallelPool()
+ * parallel pool}, which is shared by all engines. Thus the number of threads busy with 
+ * computations does not grow with the number of concurrent computations.
+ */
+public class ComputeExecutor {
+
+	/** Default maximal number of tasks waiting for execution. */
+	public static final int DEFAULT_QUEUE_SIZE = 256;
+	
+	/** Pool for parallel parts of computations shared by all engines. */
+	private static volatile ForkJoinPool parallelPool = new ForkJoinPool();
+	
+	/**
+	 * Returns the pool for parallel parts of computations. The pool is shared by all engines,
+	 * so its parallelism limits the number of threads running parallel parts regardless
+	 * of the number of concurrent computations.
+	 */
+	public static ForkJoinPool parallelPool() {
+		return parallelPool;
+	}
+	
+	/**
+	 * Sets the number of threads in the pool for parallel parts of computations 
+	 * (by default, the number of processors). The method should be called before 
+	 * computations start; tasks submitted to the previous pool are still completed.
+	 * 
+	 * @param parallelism
+	 *    positive number of threads
+	 */
+	public static synchronized void setParallelism(int parallelism) {
+		ForkJoinPool previous = parallelPool;
+		if (previous.getParallelism() == parallelism) return;
+		parallelPool = new ForkJoinPool(parallelism);
+		previous.shutdown();
+	}
+	
+	/**
+	 * Creates an executor backed by a fixed pool of platform threads.
+	 * 
+	 * @param threads
+	 *    number of threads
+	 * @param queueSize
+	 *    maximal number of tasks waiting for execution
+	 * @return
+	 */
+	public static ComputeExecutor platform(int threads, int queueSize) {
+		final AtomicInteger threadCount = new AtomicInteger();
+		ExecutorService workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, 
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "compute-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		return new ComputeExecutor(workers, threads, queueSize);
+	}
+	
+	private final ExecutorService workers;
+	
+	private final int threads;
+	
+	private final int queueSize;
+	
+	private final AtomicInteger queued = new AtomicInteger();
+	
+	private final AtomicInteger active = new AtomicInteger();
+	
+	private final AtomicLong completed = new AtomicLong();
+	
+	private final AtomicLong rejected = new AtomicLong();
+	
+	private ComputeExecutor(ExecutorService workers, int threads, int queueSize) {
+		this.workers = workers;
+		this.threads = threads;
+		this.queueSize = queueSize;
+	}
+	
+	/**
+	 * Schedules a task for execution.
+	 * 
+	 * @param task
+	 *    task to execute
+	 * @throws RejectedExecutionException
+	 *    if the queue of waiting tasks is full
+	 */
+	public void execute(final Runnable task) {
+		if (this.queued.incrementAndGet() > this.queueSize) {
+			this.queued.decrementAndGet();
+			this.rejected.incrementAndGet();
+			throw new RejectedExecutionException("Too many pending computations");
+		}
+		
+		try {
+			this.workers.execute(new Runnable() {
+				
+				public void run() {
+					queued.decrementAndGet();
+					active.incrementAndGet();
+					try {
+						task.run();
+					} finally {
+						active.decrementAndGet();
+						completed.incrementAndGet();
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			// The task is not queued, e.g. if the pool is shut down
+			this.queued.decrementAndGet();
+			this.rejected.incrementAndGet();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Executes a task and waits for its result.
+	 * 
+	 * @param task
+	 *    task to execute
+	 * @return
+	 *    result of the task
+	 * @throws RejectedExecutionException
+	 *    if the queue of waiting tasks is full
+	 * @throws InterruptedException
+	 *    if the calling thread is interrupted while waiting
+	 * @throws ExecutionException
+	 *    if the task throws an exception
+	 */
+	public <T> T call(Callable<T> task) throws InterruptedException, ExecutionException {
+		FutureTask<T> future = new FutureTask<T>(task);
+		this.execute(future);
+		return future.get();
+	}
+	
+	/** Returns the maximal number of concurrently running tasks. */
+	public int threads() {
+		return this.threads;
+	}
+	
+	/** Returns the maximal number of tasks waiting for execution. */
+	public int queueSize() {
+		return this.queueSize;
+	}
+	
+	/** Returns the number of tasks waiting for execution. */
+	public int queueDepth() {
+		return this.queued.get();
+	}
+	
+	/** Returns the number of running tasks. */
+	public int activeCount() {
+		return this.active.get();
+	}
+	
+	/** Returns the number of completed tasks. */
+	public long completedCount() {
+		return this.completed.get();
+	}
+	
+	/** Returns the number of tasks rejected because the queue was full. */
+	public long rejectedCount() {
+		return this.rejected.get();
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%d/%d running, %d/%d queued", 
+				this.activeCount(), this.threads, this.queueDepth(), this.queueSize);
+	}
+}
@@ -1,5 +1,7 @@
 package demo.impl;
 
+import java.util.Properties;
+
 import org.omg.CORBA.ORB;
 
 /**
@@ -25,7 +27,13 @@ public final class Config {
 	 */
 	public static ORB orb() {
 		if (orb == null) {
-			orb = ORB.init(Config.ORB_ARGS, null);
+			Properties props = new Properties();
+			// Transfer request deadlines and client identifiers
+			props.setProperty("org.omg.PortableInterceptor.ORBInitializerClass." 
+					+ DeadlineInterceptor.class.getName(), "");
+			props.setProperty("org.omg.PortableInterceptor.ORBInitializerClass." 
+					+ ClientIdInterceptor.class.getName(), "");
+			orb = ORB.init(Config.ORB_ARGS, props);
 		}
 		return orb;
 	}
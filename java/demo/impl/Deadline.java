@@ -0,0 +1,174 @@
+package demo.impl;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time by which a request should be completed. Deadlines are transferred between
+ * clients and servers by {@link DeadlineInterceptor}; long computations should check
+ * the deadline of the current request periodically with {@link #check()} and abort
+ * once it is exceeded, since nobody waits for their result.
+ */
+public final class Deadline {
+
+	/** Absent deadline. */
+	public static final Deadline NONE = new Deadline(0, false);
+	
+	/** Deadlines bound to the current thread. */
+	private static final ThreadLocal<Deadline> bound = new ThreadLocal<Deadline>();
+
+	/** Expiration time according to {@link System#nanoTime()}. */
+	private final long expiresAt;
+	
+	private final boolean bounded;
+	
+	private Deadline(long expiresAt, boolean bounded) {
+		this.expiresAt = expiresAt;
+		this.bounded = bounded;
+	}
+	
+	/**
+	 * Creates a deadline expiring after the specified time.
+	 * 
+	 * @param millis
+	 *    time until the deadline, in milliseconds
+	 * @return
+	 */
+	public static Deadline after(long millis) {
+		return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis), true);
+	}
+	
+	/**
+	 * Creates a deadline from its expiration time.
+	 * 
+	 * @param nanoTime
+	 *    expiration time according to {@link System#nanoTime()}
+	 * @return
+	 */
+	static Deadline at(long nanoTime) {
+		return new Deadline(nanoTime, true);
+	}
+	
+	/**
+	 * Returns the deadline of the current thread: the deadline bound to the thread with
+	 * {@link #bind(Callable)}, or the deadline of the CORBA request processed by the thread.
+	 * 
+	 * @return
+	 *    deadline, or {@link #NONE} if the current computation is not limited in time
+	 */
+	public static Deadline current() {
+		Deadline deadline = bound.get();
+		if (deadline == null) {
+			deadline = DeadlineInterceptor.requestDeadline();
+		}
+		return deadline;
+	}
+	
+	/** Checks whether this deadline limits the computation time. */
+	public boolean isBounded() {
+		return this.bounded;
+	}
+	
+	/** Returns the expiration time according to {@link System#nanoTime()}. */
+	long expiresAt() {
+		return this.expiresAt;
+	}
+	
+	/**
+	 * Returns the time remaining until this deadline, in milliseconds.
+	 * The time is negative if the deadline is exceeded, and {@link Long#MAX_VALUE}
+	 * if the deadline is absent.
+	 */
+	public long remainingMillis() {
+		if (!this.bounded) return Long.MAX_VALUE;
+		return TimeUnit.NANOSECONDS.toMillis(this.expiresAt - System.nanoTime());
+	}
+	
+	/** Checks whether this deadline is exceeded. */
+	public boolean isExceeded() {
+		return this.bounded && (System.nanoTime() - this.expiresAt >= 0);
+	}
+	
+	/**
+	 * Aborts the computation if this deadline is exceeded.
+	 * 
+	 * @throws CancellationException
+	 *    if the deadline is exceeded
+	 */
+	public void check() {
+		if (this.isExceeded()) {
+			throw new CancellationException("Deadline exceeded");
+		}
+	}
+	
+	/**
+	 * Wraps a task so that this deadline becomes the {@linkplain #current() current deadline}
+	 * of the thread executing the task. Use this method to transfer the deadline to threads
+	 * of executors.
+	 * 
+	 * @param task
+	 *    task to wrap
+	 * @return
+	 */
+	public <T> Callable<T> bind(final Callable<T> task) {
+		return new Callable<T>() {
+			
+			public T call() throws Exception {
+				Deadline previous = enter();
+				try {
+					return task.call();
+				} finally {
+					exit(previous);
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Wraps a task so that this deadline becomes the {@linkplain #current() current deadline}
+	 * of the thread executing the task.
+	 * 
+	 * @param task
+	 *    task to wrap
+	 * @return
+	 */
+	public Runnable bind(final Runnable task) {
+		return new Runnable() {
+			
+			public void run() {
+				Deadline previous = enter();
+				try {
+					task.run();
+				} finally {
+					exit(previous);
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Binds this deadline to the current thread.
+	 * 
+	 * @return
+	 *    previously bound deadline, or <code>null</code>
+	 */
+	private Deadline enter() {
+		Deadline previous = bound.get();
+		bound.set(this);
+		return previous;
+	}
+	
+	private static void exit(Deadline previous) {
+		if (previous == null) {
+			bound.remove();
+		} else {
+			bound.set(previous);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return this.bounded ? String.format("%d ms left", this.remainingMillis()) : "none";
+	}
+}
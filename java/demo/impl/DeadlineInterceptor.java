@@ -0,0 +1,183 @@
+package demo.impl;
+
+import java.nio.ByteBuffer;
+
+import org.omg.CORBA.Any;
+import org.omg.CORBA.BAD_PARAM;
+import org.omg.CORBA.LocalObject;
+import org.omg.CORBA.ORB;
+import org.omg.CORBA.TCKind;
+import org.omg.IOP.ServiceContext;
+import org.omg.PortableInterceptor.ClientRequestInfo;
+import org.omg.PortableInterceptor.ClientRequestInterceptor;
+import org.omg.PortableInterceptor.Current;
+import org.omg.PortableInterceptor.CurrentHelper;
+import org.omg.PortableInterceptor.ForwardRequest;
+import org.omg.PortableInterceptor.InvalidSlot;
+import org.omg.PortableInterceptor.ORBInitInfo;
+import org.omg.PortableInterceptor.ORBInitInfoPackage.DuplicateName;
+import org.omg.PortableInterceptor.ORBInitInfoPackage.InvalidName;
+import org.omg.PortableInterceptor.ORBInitializer;
+import org.omg.PortableInterceptor.ServerRequestInfo;
+import org.omg.PortableInterceptor.ServerRequestInterceptor;
+
+/**
+ * Transfers {@linkplain Deadline deadlines} of requests in a service context. 
+ * The client part attaches the time remaining until the deadline of the calling thread
+ * (or the {@linkplain #setRequestTimeout(long) default request timeout}) to outgoing requests.
+ * The server part restores the deadline and makes it available to servants
+ * with {@link Deadline#current()}. Services that do not recognize the context ignore it.
+ * 
+ * <p>The interceptor is registered with the ORB as an {@link ORBInitializer}.</p>
+ */
+public class DeadlineInterceptor extends LocalObject 
+		implements ORBInitializer, ClientRequestInterceptor, ServerRequestInterceptor {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Identifier of the service context with the time remaining until the deadline, in milliseconds. */
+	public static final int CONTEXT_ID = 0x49535144; // "ISQD"
+	
+	/** Default request timeout on the client side in milliseconds, or 0 if requests are not limited. */
+	private static volatile long requestTimeout = 0;
+	
+	/** Current object of portable interceptors. */
+	private static volatile Current piCurrent = null;
+	
+	/** Slot in the current object storing the deadline of the request. */
+	private static volatile int slot = -1;
+	
+	/**
+	 * Sets the default timeout of outgoing requests that are not issued on behalf
+	 * of a request with a deadline.
+	 * 
+	 * @param timeout
+	 *    timeout in milliseconds, or 0 to not limit requests
+	 */
+	public static void setRequestTimeout(long timeout) {
+		requestTimeout = timeout;
+	}
+	
+	/**
+	 * Returns the deadline of the request processed by the current thread.
+	 * 
+	 * @return
+	 *    deadline, or {@link Deadline#NONE} if the thread does not process a request
+	 *    or the request has no deadline
+	 */
+	static Deadline requestDeadline() {
+		Current current = piCurrent;
+		if (current == null) return Deadline.NONE;
+		
+		try {
+			Any any = current.get_slot(slot);
+			if (any.type().kind() == TCKind.tk_longlong) {
+				return Deadline.at(any.extract_longlong());
+			}
+		} catch (InvalidSlot e) {
+			// Fall through
+		}
+		return Deadline.NONE;
+	}
+	
+	@Override
+	public String name() {
+		return "deadline";
+	}
+
+	@Override
+	public void destroy() {
+	}
+
+	// ORBInitializer
+
+	@Override
+	public void pre_init(ORBInitInfo info) {
+		try {
+			slot = info.allocate_slot_id();
+			info.add_client_request_interceptor(this);
+			info.add_server_request_interceptor(this);
+		} catch (DuplicateName e) {
+			throw new IllegalStateException("Interceptor is already registered", e);
+		}
+	}
+
+	@Override
+	public void post_init(ORBInitInfo info) {
+		try {
+			piCurrent = CurrentHelper.narrow(info.resolve_initial_references("PICurrent"));
+		} catch (InvalidName e) {
+			throw new IllegalStateException("Cannot resolve interceptor current", e);
+		}
+	}
+	
+	// ClientRequestInterceptor
+
+	@Override
+	public void send_request(ClientRequestInfo ri) {
+		Deadline deadline = Deadline.current();
+		long timeout = requestTimeout;
+		if (!deadline.isBounded() && (timeout > 0)) {
+			deadline = Deadline.after(timeout);
+		}
+		
+		if (deadline.isBounded()) {
+			byte[] data = ByteBuffer.allocate(8).putLong(Math.max(deadline.remainingMillis(), 0)).array();
+			ri.add_request_service_context(new ServiceContext(CONTEXT_ID, data), true);
+		}
+	}
+
+	@Override
+	public void send_poll(ClientRequestInfo ri) {
+	}
+
+	@Override
+	public void receive_reply(ClientRequestInfo ri) {
+	}
+
+	@Override
+	public void receive_exception(ClientRequestInfo ri) {
+	}
+
+	@Override
+	public void receive_other(ClientRequestInfo ri) {
+	}
+
+	// ServerRequestInterceptor
+	
+	@Override
+	public void receive_request_service_contexts(ServerRequestInfo ri) throws ForwardRequest {
+		ServiceContext context;
+		try {
+			context = ri.get_request_service_context(CONTEXT_ID);
+		} catch (BAD_PARAM e) {
+			return; // No deadline
+		}
+		if (context.context_data.length != 8) return;
+		
+		long remaining = ByteBuffer.wrap(context.context_data).getLong();
+		Any any = ORB.init().create_any();
+		any.insert_longlong(Deadline.after(remaining).expiresAt());
+		try {
+			ri.set_slot(slot, any);
+		} catch (InvalidSlot e) {
+			throw new IllegalStateException("Invalid slot for deadline", e);
+		}
+	}
+
+	@Override
+	public void receive_request(ServerRequestInfo ri) {
+	}
+
+	@Override
+	public void send_reply(ServerRequestInfo ri) {
+	}
+
+	@Override
+	public void send_exception(ServerRequestInfo ri) {
+	}
+
+	@Override
+	public void send_other(ServerRequestInfo ri) {
+	}
+}
@@ -0,0 +1,304 @@
+package demo.impl;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Converts big integers to decimal strings using divide-and-conquer radix conversion.
+ * A number is split by powers 10^(2^k) into halves, which are converted recursively;
+ * halves of large numbers are converted in parallel.
+ *
+ * The powers of ten are cached and shared among all conversions;
+ * the cache is bounded by {@link #MAX_CACHED_LEVEL}.
+ *
+ * Large numbers can also be converted {@linkplain #digits(BigInteger) progressively},
+ * so that leading digits are available long before the whole number is converted.
+ */
+public final class DecimalConverter {
+
+	/** Numbers with bit length not greater than this threshold are converted with BigInteger.toString(). */
+	private static final int DIRECT_BITS = 1 << 14;
+
+	/** Chunks with at most 2^LEAF_LEVEL digits are converted with BigInteger.toString(). */
+	private static final int LEAF_LEVEL = 8;
+
+	/** Chunks with at least 2^PARALLEL_LEVEL digits are split into parallel tasks. */
+	private static final int PARALLEL_LEVEL = 15;
+
+	/** Parts with at most 2^PART_LEVEL digits are converted at once by a {@link DigitSource}. */
+	private static final int PART_LEVEL = 16;
+
+	/** Maximal level k, for which 10^(2^k) is stored in the cache (about 0.9 MB). */
+	private static final int MAX_CACHED_LEVEL = 21;
+
+	/** log10(2) used to estimate number of decimal digits. */
+	private static final double LOG10_2 = Math.log10(2);
+
+	/** Cached powers 10^(2^k). */
+	private static final AtomicReferenceArray<BigInteger> powers =
+			new AtomicReferenceArray<BigInteger>(MAX_CACHED_LEVEL + 1);
+
+	private DecimalConverter() {
+	}
+
+	/**
+	 * Returns 10^(2^level). If the level is small enough, the power is cached.
+	 *
+	 * @param level
+	 *    binary logarithm of the exponent
+	 * @return
+	 */
+	static BigInteger power(int level) {
+		if (level > MAX_CACHED_LEVEL) {
+			BigInteger half = power(level - 1);
+			return half.multiply(half);
+		}
+
+		BigInteger value = powers.get(level);
+		if (value == null) {
+			value = (level == 0) ? BigInteger.TEN : power(level - 1).pow(2);
+			// Concurrent threads may compute the same power; any of the results is fine
+			if (!powers.compareAndSet(level, null, value)) {
+				value = powers.get(level);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Converts an integer to its decimal representation.
+	 *
+	 * @param value
+	 *    integer to convert
+	 * @return
+	 *    decimal string, equal to <code>value.toString()</code>
+	 */
+	public static String toString(BigInteger value) {
+		if (value.signum() < 0) {
+			return "-" + toString(value.negate());
+		}
+		if (value.bitLength() <= DIRECT_BITS) {
+			return value.toString();
+		}
+
+		// Split off the lower 2^level digits, where 2^level is less than the number of digits,
+		// so the quotient is always positive. The lower part is converted with padding
+		// (in parallel if it is large), and the higher part is converted recursively
+		long minDigits = (long) ((value.bitLength() - 1) * LOG10_2) + 1;
+		int level = 63 - Long.numberOfLeadingZeros(minDigits - 1);
+		BigInteger[] qr = value.divideAndRemainder(power(level));
+
+		char[] digits = new char[1 << level];
+		ConvertTask task = new ConvertTask(qr[1], level, digits, 0);
+		ForkJoinTask<Void> lowTask = null;
+		if (level >= PARALLEL_LEVEL) {
+			lowTask = ComputeExecutor.parallelPool().submit(task);
+		} else {
+			task.compute();
+		}
+
+		String high = toString(qr[0]);
+		if (lowTask != null) lowTask.join();
+
+		StringBuilder sb = new StringBuilder(high.length() + digits.length);
+		sb.append(high).append(digits);
+		return sb.toString();
+	}
+
+	/**
+	 * Creates a source of decimal digits of an integer, which converts the integer progressively.
+	 *
+	 * @param value
+	 *    integer to convert
+	 * @return
+	 *    source of the digits of <code>value.toString()</code>
+	 */
+	public static DigitSource digits(BigInteger value) {
+		return new DigitSource(value);
+	}
+
+	/**
+	 * Source of decimal digits of an integer, which produces the digits progressively,
+	 * the most significant ones first. The integer is split into parts in the same way
+	 * as in {@link DecimalConverter#toString(BigInteger)}; the higher part is split further
+	 * until its digits can be converted directly, and the lower parts are converted only
+	 * when their digits are requested. Only the parts that are not converted yet are kept
+	 * in memory, together with the digits of a single part.
+	 */
+	public static final class DigitSource {
+
+		/** Part of the integer, which is not converted yet. */
+		private static final class Part {
+
+			final BigInteger value;
+
+			/** Binary logarithm of the number of digits with padding, or -1 for the leading part. */
+			final int level;
+
+			Part(BigInteger value, int level) {
+				this.value = value;
+				this.level = level;
+			}
+		}
+
+		/** Parts that are not converted yet, the most significant one first. */
+		private final Deque<Part> parts = new ArrayDeque<Part>();
+
+		/** Digits of the last converted part. */
+		private String digits;
+
+		/** Position of the next digit in the last converted part. */
+		private int position = 0;
+
+		/** Total number of characters. */
+		private final long length;
+
+		/** Total time spent converting parts, in nanoseconds. */
+		private long conversionNanos = 0;
+
+		private DigitSource(BigInteger value) {
+			this.parts.push(new Part(value.abs(), -1));
+			this.convertNext();
+			if (value.signum() < 0) {
+				this.digits = "-" + this.digits;
+			}
+
+			long length = this.digits.length();
+			for (Part part : this.parts) {
+				length += 1L << part.level;
+			}
+			this.length = length;
+		}
+
+		/**
+		 * Splits the most significant pending parts until the first of them is small enough,
+		 * and converts it.
+		 */
+		private void convertNext() {
+			long tStart = System.nanoTime();
+			while (true) {
+				Part part = this.parts.pop();
+				if ((part.level < 0) && (part.value.bitLength() <= DIRECT_BITS)) {
+					this.digits = part.value.toString();
+					break;
+				} else if ((part.level >= 0) && (part.level <= PART_LEVEL)) {
+					char[] buffer = new char[1 << part.level];
+					ConvertTask task = new ConvertTask(part.value, part.level, buffer, 0);
+					if (part.level >= PARALLEL_LEVEL) {
+						ComputeExecutor.parallelPool().invoke(task);
+					} else {
+						task.compute();
+					}
+					this.digits = new String(buffer);
+					break;
+				}
+
+				int level;
+				if (part.level < 0) {
+					// Split as in toString(), so that the higher part stays positive
+					long minDigits = (long) ((part.value.bitLength() - 1) * LOG10_2) + 1;
+					level = 63 - Long.numberOfLeadingZeros(minDigits - 1);
+				} else {
+					level = part.level - 1;
+				}
+				BigInteger[] qr = part.value.divideAndRemainder(power(level));
+				this.parts.push(new Part(qr[1], level));
+				this.parts.push(new Part(qr[0], (part.level < 0) ? -1 : level));
+			}
+			this.position = 0;
+			this.conversionNanos += System.nanoTime() - tStart;
+		}
+
+		/** Returns the total number of characters produced by this source. */
+		public long length() {
+			return this.length;
+		}
+
+		/** Returns the total time spent converting the integer so far, in nanoseconds. */
+		public synchronized long conversionNanos() {
+			return this.conversionNanos;
+		}
+
+		/** Checks whether all digits have been produced. */
+		public synchronized boolean isExhausted() {
+			return this.parts.isEmpty() && (this.position == this.digits.length());
+		}
+
+		/**
+		 * Gets the next chunk of digits.
+		 *
+		 * @param maxChunk
+		 *    maximal number of characters in the chunk
+		 * @return
+		 *    next chunk, or an empty string if all digits have been produced
+		 */
+		public synchronized String next(int maxChunk) {
+			StringBuilder sb = new StringBuilder((int) Math.min(maxChunk, this.length));
+			while (sb.length() < maxChunk) {
+				if (this.position == this.digits.length()) {
+					if (this.parts.isEmpty()) break;
+					this.convertNext();
+				}
+				int end = (int) Math.min((long) this.position + maxChunk - sb.length(), this.digits.length());
+				sb.append(this.digits, this.position, end);
+				this.position = end;
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Writes exactly 2^level decimal digits of a number, padded with zeros, into a buffer.
+	 */
+	private static class ConvertTask extends RecursiveAction {
+
+		/** Required by Java serialization mechanism. */
+		private static final long serialVersionUID = 1L;
+
+		private final BigInteger value;
+
+		private final int level;
+
+		private final char[] buffer;
+
+		private final int offset;
+
+		public ConvertTask(BigInteger value, int level, char[] buffer, int offset) {
+			this.value = value;
+			this.level = level;
+			this.buffer = buffer;
+			this.offset = offset;
+		}
+
+		@Override
+		protected void compute() {
+			int length = 1 << this.level;
+
+			if (this.value.signum() == 0) {
+				Arrays.fill(this.buffer, this.offset, this.offset + length, '0');
+			} else if (this.level <= LEAF_LEVEL) {
+				String str = this.value.toString();
+				int pad = length - str.length();
+				Arrays.fill(this.buffer, this.offset, this.offset + pad, '0');
+				str.getChars(0, str.length(), this.buffer, this.offset + pad);
+			} else {
+				BigInteger[] qr = this.value.divideAndRemainder(power(this.level - 1));
+				ConvertTask high = new ConvertTask(qr[0], this.level - 1, this.buffer, this.offset);
+				ConvertTask low = new ConvertTask(qr[1], this.level - 1, this.buffer,
+						this.offset + length / 2);
+
+				if (this.level >= PARALLEL_LEVEL) {
+					invokeAll(high, low);
+				} else {
+					high.compute();
+					low.compute();
+				}
+			}
+		}
+	}
+}
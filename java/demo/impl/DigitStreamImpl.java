@@ -0,0 +1,96 @@
+package demo.impl;
+
+import org.omg.CORBA.BAD_PARAM;
+import org.omg.PortableServer.POA;
+
+import demo.DigitStream;
+import demo.DigitStreamHelper;
+
+/**
+ * Servant for a stream of decimal digits of a single sequence member. Digits are converted
+ * progressively as the client retrieves them, so the whole decimal representation
+ * of the member is never held in memory. The stream is deactivated when the client destroys it or when it is not accessed
+ * for {@link #IDLE_TIMEOUT} milliseconds, whichever comes first.
+ */
+class DigitStreamImpl extends demo.DigitStreamPOA {
+
+	/** Time after which unused streams are destroyed, in milliseconds. */
+	public static final long IDLE_TIMEOUT = 60000;
+
+	/** Source of digits of the streamed number, or <code>null</code> if the stream is destroyed. */
+	private DecimalConverter.DigitSource source;
+
+	/** Total number of characters in the stream. */
+	private final int length;
+
+	/** Metrics to record the conversion time to, or <code>null</code>. */
+	private final SequenceMetrics metrics;
+
+	private final ServantLease lease;
+
+	/**
+	 * Creates a stream.
+	 *
+	 * @param source
+	 *    source of the digits
+	 * @param metrics
+	 *    metrics to record the conversion time to once all digits are retrieved,
+	 *    or <code>null</code>
+	 */
+	public DigitStreamImpl(DecimalConverter.DigitSource source, SequenceMetrics metrics) {
+		this.source = source;
+		this.length = (int) Math.min(source.length(), Integer.MAX_VALUE);
+		this.metrics = metrics;
+		this.lease = new ServantLease(this, IDLE_TIMEOUT, new Runnable() {
+
+			public void run() {
+				free();
+			}
+		});
+	}
+
+	/**
+	 * Activates the stream.
+	 *
+	 * @param poa
+	 *    portable object adapter to activate the stream in
+	 * @return
+	 *    reference to the activated stream
+	 * @throws ServiceException
+	 *    if a CORBA-related error occurs during activation
+	 */
+	public DigitStream activate(POA poa) throws ServiceException {
+		return DigitStreamHelper.narrow(this.lease.activate(poa));
+	}
+
+	private synchronized void free() {
+		this.source = null;
+	}
+
+	@Override
+	public synchronized int length() {
+		return this.length;
+	}
+
+	@Override
+	public synchronized String next(int maxChunk) {
+		this.lease.touch();
+		if (maxChunk <= 0) {
+			throw new BAD_PARAM("Chunk size must be positive");
+		}
+
+		boolean exhausted = this.source.isExhausted();
+		String chunk = this.source.next(maxChunk);
+		if (!exhausted && this.source.isExhausted() && (this.metrics != null)) {
+			this.metrics.recordConversion(this.source.conversionNanos());
+		}
+		return chunk;
+	}
+
+	@Override
+	public void destroy() {
+		if (this.lease.release()) {
+			this.free();
+		}
+	}
+}
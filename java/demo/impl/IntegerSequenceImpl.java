@@ -1,16 +1,47 @@
 package demo.impl;
 
+import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.omg.CORBA.CompletionStatus;
+import org.omg.CORBA.SystemException;
+import org.omg.CORBA.TRANSIENT;
+
+import demo.DigitStream;
+import demo.NumberFormat;
+import demo.RangeCursor;
 import demo.Response;
+import demo.ResponseHandler;
+import demo.SequenceError;
 
 /**
  * The generic implementation of the integer sequence service.
  * When retrieving members of the sequence, this implementation prints information 
  * about requested indices and timings.
  */
-public abstract class IntegerSequenceImpl extends demo.IntegerSequencePOA {
+public abstract class IntegerSequenceImpl extends demo.IntegerSequenceExtPOA {
+
+	/** Error message for requests rejected because of overload; clients may retry them later. */
+	static final String BUSY_MESSAGE = demo.BUSY_MESSAGE.value;
 
 	private final String name;
 	
@@ -18,6 +49,32 @@ public abstract class IntegerSequenceImpl extends demo.IntegerSequencePOA {
 	
 	private final int maxIndex;
 	
+	/** Cache of computed members, or <code>null</code> if caching is disabled. */
+	private volatile MemberCache cache = null;
+	
+	/** Executor for computations, or <code>null</code> to compute in ORB threads. */
+	private volatile ComputeExecutor executor = null;
+	
+	/** Admission control for computations, or <code>null</code> if computations are not limited. */
+	private volatile AdmissionController admission = null;
+	
+	/** Cost of the member with the maximal index, or 0 if it is not computed yet. */
+	private volatile double maxCost = 0;
+	
+	/** Precomputed responses for small members, or <code>null</code> if they are not computed yet. */
+	private volatile SmallValueTable smallValues = null;
+	
+	/** Computations of members in progress by index, which can be joined by concurrent requests. */
+	private final ConcurrentMap<Integer, MemberFlight> flights = new ConcurrentHashMap<Integer, MemberFlight>();
+	
+	private final AtomicLong cacheHits = new AtomicLong();
+	
+	private final AtomicLong coalesced = new AtomicLong();
+	
+	private final AtomicLong cacheMisses = new AtomicLong();
+	
+	private final SequenceMetrics metrics = new SequenceMetrics(this);
+	
 	protected IntegerSequenceImpl(String name, String description, int maxIndex) {
 		this.name = name;
 		this.description = description;
@@ -39,57 +96,921 @@ public abstract class IntegerSequenceImpl extends demo.IntegerSequencePOA {
 		return maxIndex;
 	}
 	
-	private Response get(int index) {
-		Response response = new Response();
+	/**
+	 * Sets the cache for computed members of this sequence. The cache may be shared
+	 * with other implementations.
+	 * 
+	 * @param cache
+	 *    member cache, or <code>null</code> to disable caching
+	 */
+	public void setCache(MemberCache cache) {
+		this.cache = cache;
+	}
+	
+	/**
+	 * Sets the executor for computations of members of this sequence. The executor may be shared
+	 * with other implementations.
+	 * 
+	 * @param executor
+	 *    compute executor, or <code>null</code> to compute members in ORB dispatch threads
+	 */
+	public void setExecutor(ComputeExecutor executor) {
+		this.executor = executor;
+	}
+	
+	/**
+	 * Sets the admission control for computations of this sequence. The controller
+	 * should not be shared with other implementations, since costs of computations
+	 * are relative to the most expensive member of the sequence.
+	 * 
+	 * @param admission
+	 *    admission controller, or <code>null</code> to admit all computations
+	 */
+	public void setAdmission(AdmissionController admission) {
+		this.admission = admission;
+	}
+	
+	/** Returns the admission controller of this sequence, or <code>null</code> if it is not set. */
+	AdmissionController admission() {
+		return this.admission;
+	}
+	
+	/** Returns the executor for computations of this sequence, or <code>null</code> if it is not set. */
+	ComputeExecutor executor() {
+		return this.executor;
+	}
+	
+	/** Returns request statistics of this sequence, which can be registered as an MBean. */
+	public SequenceMetrics metrics() {
+		return this.metrics;
+	}
+	
+	/** Returns the number of requests for this sequence served from the cache. */
+	public long cacheHits() {
+		return this.cacheHits.get();
+	}
+	
+	/** Returns the number of requests for this sequence that were not found in the cache. */
+	public long cacheMisses() {
+		return this.cacheMisses.get();
+	}
+	
+	/** 
+	 * Returns the number of requests for this sequence that joined the computation 
+	 * of the same member started by another request.
+	 */
+	public long coalescedCount() {
+		return this.coalesced.get();
+	}
+	
+	/**
+	 * Returns the ratio of requests served from the cache, or 0 if there were no requests.
+	 */
+	public double cacheHitRate() {
+		long hits = this.cacheHits(), total = hits + this.cacheMisses();
+		return (total == 0) ? 0.0 : (double) hits / total;
+	}
+	
+	/**
+	 * Checks the index of a requested member and looks up the member in the cache.
+	 * 
+	 * @param index
+	 *    index of the member
+	 * @return
+	 *    error if the index is invalid, cached member,
+	 *    or <code>null</code> if the member needs to be computed
+	 */
+	private SequenceMember lookup(int index) {
+		if ((index < 0) || (index > this.maxIndex())) {
+			return SequenceMember.error((index < 0) ? "Index cannot be negative" : "Index is too big");
+		}
+		
+		MemberCache cache = this.cache;
+		if (cache == null) return null;
+		
+		SequenceMember member = cache.get(this, index);
+		if (member != null) {
+			this.cacheHits.incrementAndGet();
+		} else {
+			this.cacheMisses.incrementAndGet();
+		}
+		return member;
+	}
+	
+	/**
+	 * Stores a computed member in the cache, unless it is an error.
+	 */
+	private void store(int index, SequenceMember member) {
+		MemberCache cache = this.cache;
+		if ((cache != null) && !member.isError()) {
+			cache.put(this, index, member);
+		}
+	}
+	
+	/**
+	 * Looks up a member in the cache without counting the lookup in statistics.
+	 */
+	private SequenceMember peek(int index) {
+		MemberCache cache = this.cache;
+		return (cache == null) ? null : cache.get(this, index);
+	}
+	
+	/**
+	 * Computes a member of the sequence, converting exceptions into errors.
+	 */
+	private SequenceMember computeSafely(int index) {
 		try {
-			if (index < 0) {
-				throw new ServiceException("Index cannot be negative");
-			} else if (index > this.maxIndex()) {
-				throw new ServiceException("Index is too big");
-			}
+			Deadline.current().check();
+			return SequenceMember.of(this.compute(index));
+		} catch (CancellationException e) {
+			return SequenceMember.retryableError(e.getMessage());
+		} catch (Exception e) {
+			return SequenceMember.error(e.getMessage());
+		}
+	}
+	
+	/**
+	 * Computes a member of the sequence and stores it in the cache.
+	 */
+	private SequenceMember computeAndStore(int index) {
+		long tStart = System.nanoTime();
+		SequenceMember member = this.computeSafely(index);
+		this.metrics.recordCompute(System.nanoTime() - tStart);
+		this.store(index, member);
+		return member;
+	}
+	
+	/**
+	 * Runs a computation on the compute executor and waits for its result.
+	 * If the executor is not set, the computation runs in the calling thread.
+	 * The deadline of the current request is transferred to the computation.
+	 * 
+	 * @param task
+	 *    computation to run
+	 * @return
+	 *    result of the computation
+	 * @throws ServiceException
+	 *    if the computation cannot be queued or its thread is interrupted
+	 */
+	private <T> T execute(Callable<T> task) throws ServiceException {
+		ComputeExecutor executor = this.executor;
+		task = Deadline.current().bind(task);
+		try {
+			if (executor == null) return task.call();
 			
-			response = this.compute(index);
+			if (executor.queueDepth() > 0) {
+				System.out.format("Computation queued (%s)\n", executor);
+			}
+			return executor.call(task);
+		} catch (RejectedExecutionException e) {
+			throw new ServiceException(BUSY_MESSAGE, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServiceException("Computation interrupted", e);
+		} catch (ExecutionException e) {
+			throw new ServiceException(String.valueOf(e.getCause()), e);
 		} catch (Exception e) {
-			response.message(e.getMessage());
+			throw new ServiceException(e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Waits until the admission control lets in the computation of the specified members.
+	 * 
+	 * @param indices
+	 *    indices of members to compute
+	 * @return
+	 *    ticket of the admitted computation, or <code>null</code> if admission control is disabled
+	 * @throws ServiceException
+	 *    if the computation is rejected
+	 */
+	private AdmissionController.Ticket admit(Collection<Integer> indices) throws ServiceException {
+		double cost = 0;
+		for (int index : indices) cost += this.cost(index);
+		return this.admit(cost);
+	}
+	
+	/**
+	 * Waits until the admission control lets in a computation with the specified cost.
+	 * 
+	 * @param cost
+	 *    cost of the computation in units of {@link #cost(int)}
+	 * @return
+	 *    ticket of the admitted computation, or <code>null</code> if admission control is disabled
+	 * @throws ServiceException
+	 *    if the computation is rejected
+	 */
+	private AdmissionController.Ticket admit(double cost) throws ServiceException {
+		AdmissionController admission = this.admission;
+		if (admission == null) return null;
+		
+		if (admission.queueDepth() > 0) {
+			System.out.format("Computation waits for admission (%s)\n", admission);
 		}
+		return admission.acquire(ClientIdInterceptor.requestClient(), this.relativeCost(cost), 
+				Deadline.current());
+	}
+	
+	/**
+	 * Converts a cost to the cost relative to the member with the maximal index, 
+	 * which is used by admission control.
+	 */
+	private double relativeCost(double cost) {
+		double maxCost = this.maxCost;
+		if (maxCost == 0) {
+			maxCost = Math.max(this.cost(this.maxIndex()), Double.MIN_NORMAL);
+			this.maxCost = maxCost;
+		}
+		return cost / maxCost;
+	}
+	
+	private static void release(AdmissionController.Ticket ticket) {
+		if (ticket != null) ticket.release();
+	}
+	
+	/**
+	 * Runs a computation on the compute executor once the admission control lets it in,
+	 * and waits for its result.
+	 * 
+	 * @param cost
+	 *    cost of the computation in units of {@link #cost(int)}
+	 * @param task
+	 *    computation to run
+	 * @return
+	 *    result of the computation
+	 * @throws ServiceException
+	 *    if the computation is rejected or fails
+	 */
+	<T> T executeAdmitted(double cost, Callable<T> task) throws ServiceException {
+		AdmissionController.Ticket ticket = this.admit(cost);
+		try {
+			return this.execute(task);
+		} finally {
+			release(ticket);
+		}
+	}
+	
+	/**
+	 * Returns the precomputed response for a member fitting into a 64-bit integer.
+	 * The table of such members is computed on the first call.
+	 * 
+	 * @param index
+	 *    index of the member
+	 * @param format
+	 *    format of the number in the response
+	 * @return
+	 *    shared response, or <code>null</code> if the member is not precomputed
+	 */
+	private Response precomputed(int index, NumberFormat format) {
+		if ((index < 0) || (index >= SmallValueTable.MAX_SIZE)) return null;
 		
+		SmallValueTable table = this.smallValues;
+		if (table == null) {
+			synchronized (this) {
+				table = this.smallValues;
+				if (table == null) {
+					table = SmallValueTable.build(this);
+					this.smallValues = table;
+					System.out.format("Precomputed %d small member(s) of sequence '%s'\n", 
+							table.size(), this.name());
+				}
+			}
+		}
+		Response response = table.get(index, format);
+		if (response != null) this.metrics.recordResult(response);
+		return response;
+	}
+	
+	/**
+	 * Registers the computation of a member by the current request, unless the member
+	 * is already being computed.
+	 * 
+	 * @param index
+	 *    index of the member
+	 * @param flight
+	 *    computation to register
+	 * @return
+	 *    <code>null</code> if the current request leads the computation, or the computation
+	 *    in progress, which the request should follow
+	 */
+	private MemberFlight join(int index, MemberFlight flight) {
+		MemberFlight leader = this.flights.putIfAbsent(index, flight);
+		if (leader != null) {
+			this.coalesced.incrementAndGet();
+			System.out.format("Joined computation of number #%d in progress\n", index);
+		}
+		return leader;
+	}
+	
+	/**
+	 * Completes a computation led by the current request and passes its result to followers.
+	 */
+	private void land(int index, MemberFlight flight, SequenceMember member) {
+		this.flights.remove(index, flight);
+		flight.complete(member);
+	}
+	
+	/**
+	 * Waits for a computation led by another request.
+	 * 
+	 * @param leader
+	 *    computation to wait for
+	 * @param deadline
+	 *    deadline of the current request
+	 * @return
+	 *    computed member or error, or <code>null</code> if the leader failed for reasons
+	 *    of its own (e.g., its deadline has been exceeded), so the member should be requested again
+	 */
+	private SequenceMember follow(MemberFlight leader, Deadline deadline) {
+		try {
+			SequenceMember member = leader.await(deadline);
+			if (member == null) return SequenceMember.retryableError("Deadline exceeded");
+			return (member.isRetryable() && !deadline.isExceeded()) ? null : member;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return SequenceMember.retryableError("Computation interrupted");
+		}
+	}
+	
+	/**
+	 * Gets a member of the sequence. If the member is already being computed for another request,
+	 * waits for that computation instead of starting a new one.
+	 */
+	private SequenceMember get(final int index) {
+		SequenceMember member = this.lookup(index);
+		if (member != null) return member;
+		
+		Deadline deadline = Deadline.current();
+		while (true) {
+			MemberFlight flight = new MemberFlight();
+			MemberFlight leader = this.join(index, flight);
+			if (leader == null) {
+				member = SequenceMember.retryableError("Computation failed");
+				try {
+					// The member could have been computed since the lookup
+					SequenceMember cached = this.peek(index);
+					member = (cached != null) ? cached : this.computeAdmitted(index);
+				} finally {
+					this.land(index, flight, member);
+				}
+				return member;
+			}
+			
+			member = this.follow(leader, deadline);
+			if (member != null) return member;
+		}
+	}
+	
+	/**
+	 * Computes a member on the compute executor once the admission control lets the computation in.
+	 */
+	private SequenceMember computeAdmitted(final int index) {
+		try {
+			AdmissionController.Ticket ticket = this.admit(Collections.singletonList(index));
+			try {
+				return this.execute(new Callable<SequenceMember>() {
+					
+					public SequenceMember call() {
+						return computeAndStore(index);
+					}
+				});
+			} finally {
+				release(ticket);
+			}
+		} catch (ServiceException e) {
+			return SequenceMember.retryableError(e.getMessage());
+		}
+	}
+
+	/**
+	 * Gets several members of the sequence. Duplicate indices are evaluated once;
+	 * the members absent from the cache are computed with {@link #computeAll(List)},
+	 * except for members that are already being computed for other requests.
+	 * 
+	 * @param indices
+	 *    indices of the members
+	 * @return
+	 *    map from the indices to the corresponding members
+	 */
+	private Map<Integer, SequenceMember> getAll(int[] indices) {
+		Set<Integer> uniqueIndices = new LinkedHashSet<Integer>();
+		for (int index : indices) uniqueIndices.add(index);
+		
+		Map<Integer, SequenceMember> results = new HashMap<Integer, SequenceMember>();
+		Map<Integer, MemberFlight> led = new LinkedHashMap<Integer, MemberFlight>();
+		Map<Integer, MemberFlight> followed = new LinkedHashMap<Integer, MemberFlight>();
+		for (int index : uniqueIndices) {
+			SequenceMember member = this.lookup(index);
+			if (member != null) {
+				results.put(index, member);
+				continue;
+			}
+			
+			MemberFlight flight = new MemberFlight();
+			MemberFlight leader = this.join(index, flight);
+			if (leader == null) {
+				led.put(index, flight);
+			} else {
+				followed.put(index, leader);
+			}
+		}
+		
+		// Complete led computations before waiting for others, so that concurrent batches
+		// following each other do not deadlock
+		Map<Integer, SequenceMember> computed = new HashMap<Integer, SequenceMember>();
+		try {
+			if (!led.isEmpty()) {
+				computed = this.computeAllAdmitted(new ArrayList<Integer>(led.keySet()));
+			}
+		} finally {
+			for (Map.Entry<Integer, MemberFlight> entry : led.entrySet()) {
+				SequenceMember member = computed.get(entry.getKey());
+				if (member == null) member = SequenceMember.retryableError("Computation failed");
+				this.land(entry.getKey(), entry.getValue(), member);
+				results.put(entry.getKey(), member);
+			}
+		}
+		
+		Deadline deadline = Deadline.current();
+		for (Map.Entry<Integer, MemberFlight> entry : followed.entrySet()) {
+			SequenceMember member = this.follow(entry.getValue(), deadline);
+			results.put(entry.getKey(), (member != null) ? member : this.get(entry.getKey()));
+		}
+		return results;
+	}
+	
+	/**
+	 * Computes several members on the compute executor once the admission control lets 
+	 * the computation in.
+	 */
+	private Map<Integer, SequenceMember> computeAllAdmitted(final List<Integer> batch) {
+		try {
+			// The whole batch occupies a single slot of the compute executor
+			AdmissionController.Ticket ticket = this.admit(batch);
+			try {
+				return this.execute(new Callable<Map<Integer, SequenceMember>>() {
+					
+					public Map<Integer, SequenceMember> call() {
+						if (batch.size() == 1) {
+							int index = batch.get(0);
+							return Collections.singletonMap(index, computeAndStore(index));
+						}
+						
+						long tStart = System.nanoTime();
+						Map<Integer, SequenceMember> computed = computeAll(batch);
+						metrics.recordCompute(System.nanoTime() - tStart);
+						for (Map.Entry<Integer, SequenceMember> entry : computed.entrySet()) {
+							store(entry.getKey(), entry.getValue());
+						}
+						return computed;
+					}
+				});
+			} finally {
+				release(ticket);
+			}
+		} catch (ServiceException e) {
+			Map<Integer, SequenceMember> errors = new HashMap<Integer, SequenceMember>();
+			for (int index : batch) {
+				errors.put(index, SequenceMember.retryableError(e.getMessage()));
+			}
+			return errors;
+		}
+	}
+	
+	/**
+	 * Computes several members of this integer sequence. By default, the members are computed
+	 * in parallel, the most expensive ones first. Implementations may override this method
+	 * if members can be computed more efficiently together; they should check
+	 * the {@linkplain Deadline#current() current deadline} in long computations.
+	 * 
+	 * @param indices
+	 *    distinct valid indices of the members
+	 * @return
+	 *    map from the indices to the corresponding members; failures should be represented
+	 *    by {@linkplain SequenceMember#error(String) errors}
+	 */
+	protected Map<Integer, SequenceMember> computeAll(List<Integer> indices) {
+		List<Integer> order = new ArrayList<Integer>(indices);
+		Collections.sort(order, new Comparator<Integer>() {
+			
+			public int compare(Integer x, Integer y) {
+				return Double.compare(cost(y), cost(x));
+			}
+		});
+		
+		Deadline deadline = Deadline.current();
+		List<Callable<SequenceMember>> tasks = new ArrayList<Callable<SequenceMember>>();
+		for (final int index : order) {
+			tasks.add(deadline.bind(new Callable<SequenceMember>() {
+				
+				public SequenceMember call() {
+					return computeSafely(index);
+				}
+			}));
+		}
+		
+		Map<Integer, SequenceMember> results = new HashMap<Integer, SequenceMember>();
+		List<Future<SequenceMember>> futures = ComputeExecutor.parallelPool().invokeAll(tasks);
+		for (int i = 0; i < order.size(); i++) {
+			SequenceMember member;
+			try {
+				member = futures.get(i).get();
+			} catch (InterruptedException | ExecutionException e) {
+				member = SequenceMember.error(e.getMessage());
+			}
+			results.put(order.get(i), member);
+		}
+		return results;
+	}
+
+	/**
+	 * Raises {@link TRANSIENT} if the computation of a member was rejected because of overload,
+	 * so that clients can tell the rejection from other errors and retry the request.
+	 * 
+	 * @param member
+	 *    member to check
+	 * @return
+	 *    the same member
+	 */
+	private static SequenceMember checkBusy(SequenceMember member) {
+		if (isBusy(member)) {
+			throw new TRANSIENT(BUSY_MESSAGE, demo.BUSY_MINOR.value, CompletionStatus.COMPLETED_NO);
+		}
+		return member;
+	}
+	
+	/**
+	 * Raises {@link TRANSIENT} if computations of all members of a batch were rejected 
+	 * because of overload. If only some of them were rejected, the other members are returned
+	 * and the rejected ones are reported with per-member errors.
+	 * 
+	 * @param members
+	 *    computed members of the batch
+	 */
+	private static void checkBusy(Collection<SequenceMember> members) {
+		for (SequenceMember member : members) {
+			if (!isBusy(member)) return;
+		}
+		throw new TRANSIENT(BUSY_MESSAGE, demo.BUSY_MINOR.value, CompletionStatus.COMPLETED_NO);
+	}
+	
+	/** Checks whether the computation of a member was rejected because of overload. */
+	private static boolean isBusy(SequenceMember member) {
+		return member.isRetryable() && BUSY_MESSAGE.equals(member.errorMessage());
+	}
+	
+	/**
+	 * Wraps a member into a response, recording the time of the conversion
+	 * into the decimal representation and the size of the number.
+	 */
+	private Response respond(SequenceMember member, NumberFormat format) {
+		if (member.isError()) return member.toResponse(format);
+		
+		long tStart = System.nanoTime();
+		Response response = member.toResponse(format);
+		if (format.equals(NumberFormat.f_decimal)) {
+			this.metrics.recordConversion(System.nanoTime() - tStart);
+		}
+		this.metrics.recordResult(response);
 		return response;
 	}
 
 	@Override
 	public Response number(int index) {
+		return this.numberAs(index, NumberFormat.f_decimal);
+	}
+
+	@Override
+	public Response[] numbers(int[] indices) {
+		return this.numbersAs(indices, NumberFormat.f_decimal);
+	}
+
+	@Override
+	public Response numberAs(int index, NumberFormat format) {
 		System.out.format("Requested number #%d from sequence '%s'\n", index, this.name());
 		long tStart = new Date().getTime();
-		Response response = this.get(index);
+		this.metrics.requestStarted(1);
+		Response response = null;
+		try {
+			response = this.precomputed(index, format);
+			if (response == null) {
+				response = this.respond(checkBusy(this.get(index)), format);
+			}
+		} finally {
+			this.metrics.requestCompleted(response);
+		}
 		System.out.format("Responded in %d ms\n", new Date().getTime() - tStart);
 		return response;
 	}
 
 	@Override
-	public Response[] numbers(int[] indices) {
+	public Response[] numbersAs(int[] indices, NumberFormat format) {
 		System.out.format("Requested number(s) #%s from sequence '%s'\n", 
 				Arrays.toString(indices), this.name());
 
 		long tStart = new Date().getTime();
+		this.metrics.requestStarted(indices.length);
 		Response[] responses = new Response[indices.length];
-		for (int i = 0; i < indices.length; i++) {
-			responses[i] = this.get(indices[i]);
+		try {
+			int[] remaining = new int[indices.length];
+			int remainingCount = 0;
+			for (int i = 0; i < indices.length; i++) {
+				responses[i] = this.precomputed(indices[i], format);
+				if (responses[i] == null) remaining[remainingCount++] = indices[i];
+			}
+			
+			if (remainingCount > 0) {
+				Map<Integer, SequenceMember> results = this.getAll(Arrays.copyOf(remaining, remainingCount));
+				checkBusy(results.values());
+				for (int i = 0; i < indices.length; i++) {
+					if (responses[i] == null) {
+						responses[i] = this.respond(results.get(indices[i]), format);
+					}
+				}
+			}
+		} finally {
+			this.metrics.requestCompleted(responses);
 		}
 		System.out.format("Responded in %d ms\n", new Date().getTime() - tStart);
 		return responses;
 	}
 	
+	@Override
+	public DigitStream numberStream(int index) throws SequenceError {
+		System.out.format("Requested stream for number #%d from sequence '%s'\n", index, this.name());
+		long tStart = new Date().getTime();
+		this.metrics.requestStarted(1);
+		boolean failed = true;
+		DigitStream stream;
+		try {
+			SequenceMember member = checkBusy(this.get(index));
+			if (member.isError()) {
+				throw new SequenceError(member.errorMessage());
+			}
+			
+			// Digits are converted as the client retrieves them; the conversion time
+			// is recorded once the stream is exhausted
+			DecimalConverter.DigitSource source = DecimalConverter.digits(member.value());
+			this.metrics.recordResult(source.length());
+			stream = new DigitStreamImpl(source, this.metrics).activate(this._poa());
+			failed = false;
+		} catch (ServiceException e) {
+			throw new SequenceError(e.getMessage());
+		} finally {
+			this.metrics.requestCompleted(failed);
+		}
+		System.out.format("Responded in %d ms\n", new Date().getTime() - tStart);
+		return stream;
+	}
+	
+	@Override
+	public RangeCursor numbersRange(int start, int count, int step, NumberFormat format) 
+			throws SequenceError {
+		System.out.format("Requested range of %d number(s) #%d, step %d from sequence '%s'\n", 
+				count, start, step, this.name());
+		
+		// Members of the range are computed and retrieved through the cursor, so only 
+		// the request is counted; the cursor records conversion times and sizes of members
+		this.metrics.requestStarted(0);
+		boolean failed = true;
+		try {
+			if ((start < 0) || (count < 0) || (step <= 0)) {
+				throw new SequenceError("Invalid range");
+			} else if ((count > 0) && (start + (long) (count - 1) * step > this.maxIndex())) {
+				throw new SequenceError("Index is too big");
+			}
+			
+			RangeCursor cursor = new RangeCursorImpl(this, start, count, step, format)
+					.activate(this._poa());
+			failed = false;
+			return cursor;
+		} catch (ServiceException e) {
+			throw new SequenceError(e.getMessage());
+		} finally {
+			this.metrics.requestCompleted(failed);
+		}
+	}
+	
+	@Override
+	public void submit(final int requestId, final int index, final NumberFormat format, 
+			final ResponseHandler handler) {
+		
+		System.out.format("Submitted request %d for number #%d from sequence '%s'\n", 
+				requestId, index, this.name());
+		this.metrics.requestStarted(1);
+		this.submitMember(requestId, index, format, handler, new Date().getTime());
+	}
+	
+	/**
+	 * Processes an asynchronous request for a member, which is already counted in metrics.
+	 * The response is sent to the handler once the member is computed.
+	 */
+	private void submitMember(final int requestId, final int index, final NumberFormat format, 
+			final ResponseHandler handler, final long tStart) {
+		
+		Response precomputed = this.precomputed(index, format);
+		if (precomputed != null) {
+			this.deliver(handler, requestId, index, precomputed, tStart);
+			return;
+		}
+		
+		SequenceMember member = this.lookup(index);
+		if (member != null) {
+			this.deliver(handler, requestId, index, this.respond(member, format), tStart);
+			return;
+		}
+		
+		final MemberFlight flight = new MemberFlight();
+		final MemberFlight leader = this.join(index, flight);
+		if (leader != null) {
+			// Respond once the computation started by another request completes
+			final Deadline deadline = Deadline.current();
+			leader.onComplete(new Runnable() {
+				
+				public void run() {
+					SequenceMember result = leader.member();
+					if (result.isRetryable() && !deadline.isExceeded()) {
+						// The leader has failed for reasons of its own; submit the request again
+						ComputeExecutor.parallelPool().execute(deadline.bind(new Runnable() {
+							
+							public void run() {
+								submitMember(requestId, index, format, handler, tStart);
+							}
+						}));
+					} else {
+						deliver(handler, requestId, index, respond(result, format), tStart);
+					}
+				}
+			});
+			return;
+		}
+		
+		// Do not hold the ORB thread while the computation waits for admission or runs
+		final Deadline deadline = Deadline.current();
+		AdmissionController admission = this.admission;
+		if (admission == null) {
+			this.computeSubmitted(requestId, index, format, handler, tStart, flight, null, deadline);
+			return;
+		}
+		
+		if (admission.queueDepth() > 0) {
+			System.out.format("Computation waits for admission (%s)\n", admission);
+		}
+		admission.acquire(ClientIdInterceptor.requestClient(), this.relativeCost(this.cost(index)), 
+				deadline, new AdmissionController.Callback() {
+			
+			public void admitted(AdmissionController.Ticket ticket) {
+				computeSubmitted(requestId, index, format, handler, tStart, flight, ticket, deadline);
+			}
+			
+			public void rejected(String message) {
+				SequenceMember member = SequenceMember.retryableError(message);
+				land(index, flight, member);
+				deliver(handler, requestId, index, respond(member, format), tStart);
+			}
+		});
+	}
+	
+	/**
+	 * Hands the computation of a member for an asynchronous request over to the compute executor.
+	 * The computed member is delivered to the handler, and the admission ticket is released.
+	 * The method does not block, since it may be called while the admission controller is locked.
+	 */
+	private void computeSubmitted(final int requestId, final int index, final NumberFormat format, 
+			final ResponseHandler handler, final long tStart, final MemberFlight flight, 
+			final AdmissionController.Ticket ticket, Deadline deadline) {
+		
+		ComputeExecutor executor = this.executor;
+		Runnable task = deadline.bind(new Runnable() {
+			
+			public void run() {
+				SequenceMember result = SequenceMember.retryableError("Computation failed");
+				try {
+					result = computeAndStore(index);
+				} finally {
+					release(ticket);
+					land(index, flight, result);
+				}
+				deliver(handler, requestId, index, respond(result, format), tStart);
+			}
+		});
+		try {
+			if (executor != null) {
+				if (executor.queueDepth() > 0) {
+					System.out.format("Computation queued (%s)\n", executor);
+				}
+				executor.execute(task);
+			} else {
+				ComputeExecutor.parallelPool().execute(task);
+			}
+		} catch (RejectedExecutionException e) {
+			// Respond from another thread, which does not lock the admission controller
+			ComputeExecutor.parallelPool().execute(new Runnable() {
+				
+				public void run() {
+					release(ticket);
+					SequenceMember member = SequenceMember.retryableError(BUSY_MESSAGE);
+					land(index, flight, member);
+					deliver(handler, requestId, index, respond(member, format), tStart);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Delivers the response to an asynchronous request.
+	 */
+	private void deliver(ResponseHandler handler, int requestId, int index, Response response, 
+			long tStart) {
+		
+		try {
+			handler.deliver(requestId, index, response);
+			this.metrics.requestCompleted(response);
+			System.out.format("Delivered response to request %d in %d ms\n", 
+					requestId, new Date().getTime() - tStart);
+		} catch (SystemException e) {
+			this.metrics.requestCompleted(true);
+			System.out.format("Failed to deliver response to request %d: %s\n", requestId, e);
+		}
+	}
+	
+	/**
+	 * Returns an iterator over members with indices start, start + step, start + 2 * step, ...
+	 * The indices are checked by the caller. The iterator is created and used by threads
+	 * of the compute executor. By default, each member is looked up in the cache and computed
+	 * separately; implementations may override this method to compute members
+	 * incrementally, in which case members computed by the iterator are not cached. 
+	 * Long computations should check the {@linkplain Deadline#current() current deadline}.
+	 * 
+	 * @param start
+	 *    index of the first member
+	 * @param step
+	 *    positive difference between consecutive indices
+	 * @return
+	 */
+	protected MemberIterator iterate(final int start, final int step) {
+		return new MemberIterator() {
+			
+			private int index = start;
+			
+			public SequenceMember next() {
+				SequenceMember member = lookup(this.index);
+				if (member == null) member = computeAndStore(this.index);
+				this.index += step;
+				return member;
+			}
+		};
+	}
+	
+	/**
+	 * Estimates relative cost of retrieving consecutive members of a range from an iterator
+	 * returned by {@link #iterate(int, int)}, which is positioned at the first of them.
+	 * By default, the members are computed separately, so their costs are summed up;
+	 * implementations computing members incrementally should override this method.
+	 * 
+	 * @param start
+	 *    index of the first member
+	 * @param count
+	 *    number of members
+	 * @param step
+	 *    positive difference between consecutive indices
+	 * @return
+	 *    cost estimate in units of {@link #cost(int)}
+	 */
+	protected double rangeCost(int start, int count, int step) {
+		double cost = 0;
+		for (int i = 0; i < count; i++) cost += this.cost(start + i * step);
+		return cost;
+	}
+	
+	/**
+	 * Estimates relative cost of computing a member of this sequence. The estimate is used
+	 * to schedule the evaluation of batch requests and, relative to the cost of the member
+	 * with the maximal index, by admission control; it only needs to be consistent
+	 * among indices of the same sequence. Implementations should override this method
+	 * according to the complexity of their algorithm.
+	 * 
+	 * @param index
+	 *    0-based index of the member
+	 * @return
+	 *    cost estimate (by default, the index itself)
+	 */
+	protected double cost(int index) {
+		return index;
+	}
+	
 	/**
-	 * Computes a member of this integer sequence.
+	 * Computes a member of this integer sequence. Long computations should periodically
+	 * check the {@linkplain Deadline#current() current deadline}.
 	 * 
 	 * @param index
 	 *    0-based index of the member
 	 * @return
-	 *    number wrapped in the response container
+	 *    value of the member
 	 * 
 	 * @throws Exception
 	 */
-	protected abstract Response compute(int index) throws Exception;
+	protected abstract BigInteger compute(int index) throws Exception;
 	
 	/**
 	 * Gets the name of this sequence for CORBA naming service.
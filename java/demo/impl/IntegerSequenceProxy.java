@@ -1,21 +1,51 @@
 package demo.impl;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import org.omg.CORBA.BAD_PARAM;
+import org.omg.CORBA.NO_IMPLEMENT;
+import org.omg.CORBA.SystemException;
+import org.omg.CORBA.portable.ObjectImpl;
+
+import demo.DigitStream;
 import demo.IntegerSequence;
-import demo.IntegerSequenceOperations;
+import demo.IntegerSequenceExt;
+import demo.IntegerSequenceExtHelper;
+import demo.IntegerSequenceExtOperations;
+import demo.NumberFormat;
+import demo.RangeCursor;
 import demo.Response;
+import demo.ResponseHandler;
 import demo.ResponseType;
+import demo.SequenceError;
 
 /**
  * Proxy for integer sequence service. When accessing the service,
  * proxy prints information about requests, received data, and timings.
+ * 
+ * If the service supports extended operations, the proxy requests numbers 
+ * in the compact format, in which small numbers are 64-bit integers and larger ones
+ * are binary, so numbers are converted to the decimal form only for printing.
  */
-public class IntegerSequenceProxy implements IntegerSequenceOperations {
+public class IntegerSequenceProxy implements IntegerSequenceExtOperations {
 
 	private final IntegerSequence reference;
 	
+	/** Reference to the service with extended operations, or <code>null</code> if unsupported. */
+	private final IntegerSequenceExt extReference;
+	
+	/** Format of numbers requested by {@link #number(int)} and {@link #numbers(int[])}. */
+	private final NumberFormat format;
+	
 	/** Name of the service in the CORBA system. */
 	public final Name corbaName;
 	
@@ -25,9 +55,48 @@ public class IntegerSequenceProxy implements IntegerSequenceOperations {
 	public IntegerSequenceProxy(IntegerSequence reference, Name name, 
 			boolean shortenNumbers) throws ServiceException {
 		
+		this(reference, name, shortenNumbers, true);
+	}
+	
+	/**
+	 * Creates a proxy for the service.
+	 * 
+	 * @param reference
+	 *    reference to the service
+	 * @param name
+	 *    name of the service
+	 * @param shortenNumbers
+	 *    shorten long numbers in output?
+	 * @param preferBinary
+	 *    request numbers in the compact format if the service supports it?
+	 * @throws ServiceException
+	 *    if a CORBA-related error occurs while checking capabilities of the service
+	 */
+	public IntegerSequenceProxy(IntegerSequence reference, Name name, 
+			boolean shortenNumbers, boolean preferBinary) throws ServiceException {
+		
 		this.reference = reference;
 		this.corbaName = name;
 		this.shortenNumbers = shortenNumbers;
+		
+		IntegerSequenceExt ext = null;
+		try {
+			ext = IntegerSequenceExtHelper.narrow(reference);
+		} catch (BAD_PARAM e) {
+			// The service does not support extended operations
+			ext = null;
+		} catch (SystemException e) {
+			throw new ServiceException("Failed to check capabilities of service " + name, e);
+		}
+		this.extReference = ext;
+		this.format = (preferBinary && (ext != null)) ? NumberFormat.f_compact : NumberFormat.f_decimal;
+	}
+	
+	/**
+	 * Returns the reference to the remote service wrapped by this proxy.
+	 */
+	public IntegerSequence reference() {
+		return this.reference;
 	}
 	
 	@Override
@@ -47,22 +116,36 @@ public class IntegerSequenceProxy implements IntegerSequenceOperations {
 
 	@Override
 	public Response number(int index) {
+		return this.numberAs(index, this.format);
+	}
+
+	@Override
+	public Response[] numbers(int[] indices) {
+		return this.numbersAs(indices, this.format);
+	}
+
+	@Override
+	public Response numberAs(int index, NumberFormat format) {
 		System.out.format("Performing request %s(%d)\n", 
 				this.corbaName.id, index);
 		
 		long tStart = new Date().getTime();
-		Response val = this.reference.number(index);
+		Response val = (this.extReference != null) 
+				? this.extReference.numberAs(index, format)
+				: this.reference.number(index);
 		System.out.format("Request completed in %d ms\n", new Date().getTime() - tStart);
 		this.printVal(index, val);
 		return val;
 	}
 
 	@Override
-	public Response[] numbers(int[] indices) {
+	public Response[] numbersAs(int[] indices, NumberFormat format) {
 		System.out.format("Performing batch request %s(%s)\n", 
 				this.corbaName.id, Arrays.toString(indices));
 		long tStart = new Date().getTime();
-		Response[] values = this.reference.numbers(indices);
+		Response[] values = (this.extReference != null) 
+				? this.extReference.numbersAs(indices, format)
+				: this.reference.numbers(indices);
 		System.out.format("Request completed in %d ms\n", new Date().getTime() - tStart);
 		for (int i = 0; i < values.length; i++) {
 			this.printVal(indices[i], values[i]);
@@ -70,14 +153,208 @@ public class IntegerSequenceProxy implements IntegerSequenceOperations {
 		return values;
 	}
 
+	@Override
+	public DigitStream numberStream(int index) throws SequenceError {
+		if (this.extReference == null) {
+			throw new NO_IMPLEMENT("Service " + this.corbaName + " does not support streaming");
+		}
+		return this.extReference.numberStream(index);
+	}
+	
+	/**
+	 * Retrieves a member of the sequence in chunks and writes its digits as they arrive.
+	 * 
+	 * @param index
+	 *    index of the member
+	 * @param out
+	 *    writer to output digits to
+	 * @param chunkSize
+	 *    maximal number of digits retrieved in a single call
+	 * @throws SequenceError
+	 *    if the service fails to compute the member
+	 * @throws IOException
+	 *    if an I/O error occurs writing digits
+	 */
+	public void streamNumber(int index, Writer out, int chunkSize) throws SequenceError, IOException {
+		System.out.format("Performing stream request %s(%d)\n", this.corbaName.id, index);
+		long tStart = new Date().getTime();
+		DigitStream stream = this.numberStream(index);
+		try {
+			String chunk = stream.next(chunkSize);
+			System.out.format("First chunk received in %d ms\n", new Date().getTime() - tStart);
+			while (chunk.length() > 0) {
+				out.write(chunk);
+				out.flush();
+				chunk = stream.next(chunkSize);
+			}
+			out.write('\n');
+			out.flush();
+		} finally {
+			stream.destroy();
+		}
+		System.out.format("Request completed in %d ms\n", new Date().getTime() - tStart);
+	}
+	
+	@Override
+	public RangeCursor numbersRange(int start, int count, int step, NumberFormat format) 
+			throws SequenceError {
+		
+		if (this.extReference == null) {
+			throw new NO_IMPLEMENT("Service " + this.corbaName + " does not support range queries");
+		}
+		return this.extReference.numbersRange(start, count, step, format);
+	}
+	
+	/**
+	 * Retrieves a range of sequence members page by page. Members are printed as usual
+	 * or, if a writer is specified, written to it in the decimal form, one per line.
+	 * 
+	 * @param start
+	 *    index of the first member
+	 * @param count
+	 *    number of members to retrieve
+	 * @param step
+	 *    difference between consecutive indices
+	 * @param out
+	 *    writer to output members to, or <code>null</code> to print them
+	 * @param pageSize
+	 *    maximal number of members retrieved in a single call
+	 * @throws SequenceError
+	 *    if the range is invalid
+	 * @throws IOException
+	 *    if an I/O error occurs writing members
+	 */
+	public void queryRange(int start, int count, int step, Writer out, int pageSize) 
+			throws SequenceError, IOException {
+		
+		System.out.format("Performing range request %s: %d member(s) from #%d with step %d\n", 
+				this.corbaName.id, count, start, step);
+		long tStart = new Date().getTime();
+		RangeCursor cursor = this.numbersRange(start, count, step, this.format);
+		try {
+			int index = start;
+			while (cursor.remaining() > 0) {
+				Response[] page = cursor.next(pageSize);
+				for (Response value : page) {
+					if ((out == null) || value.discriminator().equals(ResponseType.t_error)) {
+						this.printVal(index, value);
+					} else {
+						out.write(decimal(value));
+						out.write('\n');
+					}
+					index += step;
+				}
+				if (out != null) out.flush();
+			}
+		} finally {
+			cursor.destroy();
+		}
+		System.out.format("Request completed in %d ms\n", new Date().getTime() - tStart);
+	}
+	
+	@Override
+	public void submit(int requestId, int index, NumberFormat format, ResponseHandler handler) {
+		if (this.extReference == null) {
+			throw new NO_IMPLEMENT("Service " + this.corbaName + " does not support asynchronous requests");
+		}
+		this.extReference.submit(requestId, index, format, handler);
+	}
+	
+	/**
+	 * Submits an asynchronous request for a sequence member. The call returns without
+	 * waiting for the member to be computed.
+	 * 
+	 * @param index
+	 *    index of the member
+	 * @return
+	 *    future completed when the service delivers the member
+	 * @throws ServiceException
+	 *    if a CORBA-related error occurs while activating the response handler
+	 */
+	public ResponseFuture submitNumber(int index) throws ServiceException {
+		ResponseDispatcher dispatcher = ResponseDispatcher.forOrb(((ObjectImpl) this.reference)._orb());
+		ResponseFuture future = dispatcher.register(index);
+		try {
+			this.submit(future.requestId(), index, this.format, dispatcher.reference());
+		} catch (SystemException e) {
+			future.cancel(false);
+			throw e;
+		}
+		return future;
+	}
+	
+	/**
+	 * Submits asynchronous requests for several sequence members at once and prints
+	 * the members in the order of indices as they are delivered. Responses are delivered
+	 * with oneway calls, which may be lost, so they are awaited for a limited time;
+	 * indices without delivered responses are reported.
+	 * 
+	 * @param indices
+	 *    indices of the members
+	 * @param timeout
+	 *    time to wait for all responses, in milliseconds
+	 * @throws ServiceException
+	 *    if a CORBA-related error occurs while activating the response handler
+	 * @throws InterruptedException
+	 *    if the calling thread is interrupted while waiting for responses
+	 */
+	public void queryAsync(int[] indices, long timeout) throws ServiceException, InterruptedException {
+		System.out.format("Submitting requests %s(%s)\n", 
+				this.corbaName.id, Arrays.toString(indices));
+		long tStart = new Date().getTime();
+		List<ResponseFuture> futures = new ArrayList<ResponseFuture>();
+		for (int index : indices) {
+			futures.add(this.submitNumber(index));
+		}
+		System.out.format("Requests submitted in %d ms\n", new Date().getTime() - tStart);
+		
+		long waitEnd = tStart + timeout;
+		List<Integer> undelivered = new ArrayList<Integer>();
+		for (ResponseFuture future : futures) {
+			try {
+				long remaining = Math.max(waitEnd - new Date().getTime(), 0);
+				this.printVal(future.index, future.get(remaining, TimeUnit.MILLISECONDS));
+			} catch (ExecutionException e) {
+				System.out.format("Error getting %s(%s): %s\n", 
+						this.corbaName.id, future.index, e.getCause());
+			} catch (TimeoutException e) {
+				future.cancel(false);
+				undelivered.add(future.index);
+			}
+		}
+		if (!undelivered.isEmpty()) {
+			System.out.format("Responses for %s(%s) were not delivered in %d ms\n", 
+					this.corbaName.id, undelivered, timeout);
+		}
+		System.out.format("Requests completed in %d ms\n", new Date().getTime() - tStart);
+	}
+	
+	/**
+	 * Returns the decimal representation of a number in a response, which is not an error.
+	 */
+	private static String decimal(Response value) {
+		if (value.discriminator().equals(ResponseType.t_string)) {
+			return value.stringVal();
+		} else if (value.discriminator().equals(ResponseType.t_int)) {
+			return Integer.toString(value.intVal());
+		} else if (value.discriminator().equals(ResponseType.t_longlong)) {
+			return Long.toString(value.longVal());
+		} else {
+			return DecimalConverter.toString(new BigInteger(value.bytesVal()));
+		}
+	}
+	
 	public void printVal(int index, Response value) {
 		if (value.discriminator().equals(ResponseType.t_error)) {
 			System.out.format("Error getting %s(%s): %s\n", 
 					this.corbaName.id, index, value.message());
 		} else if (value.discriminator().equals(ResponseType.t_int)) {
 			System.out.format("%s(%s) = %d\n", this.corbaName.id, index, value.intVal());
-		} else if (value.discriminator().equals(ResponseType.t_string)) {
-			String str = value.stringVal();
+		} else if (value.discriminator().equals(ResponseType.t_longlong)) {
+			System.out.format("%s(%s) = %d\n", this.corbaName.id, index, value.longVal());
+		} else if (value.discriminator().equals(ResponseType.t_string)
+				|| value.discriminator().equals(ResponseType.t_bytes)) {
+			String str = decimal(value);
 			int len = str.length();
 			if ((len > 50) && this.shortenNumbers) {
 				str = String.format("%s...[%d digits skipped]...%s", str.substring(0, 20),
@@ -0,0 +1,116 @@
+package demo.impl;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets. Each power-of-two range
+ * of values is split into {@link #HALF_BUCKETS} equal buckets, so recorded values
+ * are preserved with relative precision better than 1%.
+ *
+ * The histogram is not thread-safe; concurrent recorders should use separate histograms
+ * and {@linkplain #add(LatencyHistogram) merge} them afterwards.
+ */
+public class LatencyHistogram {
+
+	/** Binary logarithm of the number of exactly recorded small values. */
+	private static final int SUB_BUCKET_BITS = 8;
+
+	/** Number of exactly recorded small values. */
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/** Number of buckets in each power-of-two range of larger values. */
+	private static final int HALF_BUCKETS = SUB_BUCKETS / 2;
+
+	private final long[] counts = new long[SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * HALF_BUCKETS];
+
+	private long totalCount = 0;
+
+	private long max = 0;
+
+	private double sum = 0;
+
+	/**
+	 * Returns the index of the bucket containing a non-negative value.
+	 */
+	private static int bucketIndex(long value) {
+		int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		if (shift <= 0) return (int) value;
+		return SUB_BUCKETS + (shift - 1) * HALF_BUCKETS + (int) (value >>> shift) - HALF_BUCKETS;
+	}
+
+	/**
+	 * Returns the largest value, which belongs to the bucket with the specified index.
+	 */
+	private static long bucketValue(int index) {
+		if (index < SUB_BUCKETS) return index;
+		int shift = (index - SUB_BUCKETS) / HALF_BUCKETS + 1;
+		long lower = (long) ((index - SUB_BUCKETS) % HALF_BUCKETS + HALF_BUCKETS) << shift;
+		return lower + (1L << shift) - 1;
+	}
+
+	/**
+	 * Records a latency value.
+	 *
+	 * @param nanos
+	 *    latency in nanoseconds; negative values are recorded as zeros
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) nanos = 0;
+		this.counts[bucketIndex(nanos)]++;
+		this.totalCount++;
+		this.sum += nanos;
+		if (nanos > this.max) this.max = nanos;
+	}
+
+	/**
+	 * Adds all values recorded in another histogram to this histogram.
+	 *
+	 * @param other
+	 *    histogram to add
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < this.counts.length; i++) {
+			this.counts[i] += other.counts[i];
+		}
+		this.totalCount += other.totalCount;
+		this.sum += other.sum;
+		if (other.max > this.max) this.max = other.max;
+	}
+
+	/** Returns the number of recorded values. */
+	public long count() {
+		return this.totalCount;
+	}
+
+	/** Returns the maximal recorded value in nanoseconds. */
+	public long max() {
+		return this.max;
+	}
+
+	/** Returns the mean of recorded values in nanoseconds. */
+	public double mean() {
+		return (this.totalCount == 0) ? 0.0 : this.sum / this.totalCount;
+	}
+
+	/**
+	 * Returns an upper estimate of the value at the specified percentile.
+	 *
+	 * @param percentile
+	 *    percentile between 0 and 100
+	 * @return
+	 *    value in nanoseconds, or 0 if the histogram is empty
+	 */
+	public long percentile(double percentile) {
+		if (this.totalCount == 0) return 0;
+
+		long rank = (long) Math.ceil(percentile / 100.0 * this.totalCount);
+		if (rank < 1) rank = 1;
+
+		long seen = 0;
+		for (int i = 0; i < this.counts.length; i++) {
+			seen += this.counts[i];
+			if (seen >= rank) {
+				return Math.min(bucketValue(i), this.max);
+			}
+		}
+		return this.max;
+	}
+}
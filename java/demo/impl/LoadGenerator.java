@@ -0,0 +1,228 @@
+package demo.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.omg.CORBA.SystemException;
+
+import demo.IntegerSequenceOperations;
+import demo.Response;
+import demo.ResponseType;
+
+/**
+ * Load generator, which sends concurrent single-member requests to an integer sequence
+ * service for a fixed period of time and reports throughput, errors and latency percentiles.
+ *
+ * In the closed-loop mode, each of the worker threads sends the next request
+ * as soon as it receives the response to the previous one. In the open-loop mode,
+ * requests are sent according to a fixed schedule with the target rate; latencies
+ * are measured from the scheduled start of a request rather than from its actual start,
+ * so stalls of the service are not hidden by delayed requests (coordinated omission).
+ */
+public class LoadGenerator {
+
+	/** Distribution of requested indices. */
+	public static enum Distribution {
+		/** Indices are picked from the specified list with equal probabilities. */
+		UNIFORM,
+		/** Indices are picked from the specified list with probabilities ~ 1/rank. */
+		ZIPF,
+		/** Indices are picked from the range between the minimal and maximal specified index. */
+		RANGE
+	}
+
+	private final IntegerSequenceOperations sequence;
+
+	/** Name of the benchmarked sequence or service. */
+	private final String serviceName;
+
+	private final int[] indices;
+
+	private final Distribution distribution;
+
+	/** Bounds of indices for the range distribution. */
+	private final int minIndex, maxIndex;
+
+	/** Cumulative probabilities for the Zipf distribution. */
+	private final double[] zipfCdf;
+
+	/** Number of worker threads. */
+	private final int threads;
+
+	/** Target request rate per second, or 0 for the closed-loop mode. */
+	private final double rate;
+
+	/** Duration of the test in seconds. */
+	private final int duration;
+
+	private final LatencyHistogram latencies = new LatencyHistogram();
+
+	private final AtomicLong errors = new AtomicLong();
+
+	/**
+	 * Creates a load generator.
+	 *
+	 * @param sequence
+	 *    sequence service to send requests to
+	 * @param serviceName
+	 *    name of the service or sequence
+	 * @param indices
+	 *    indices of the sequence to request
+	 * @param distribution
+	 *    distribution of requested indices
+	 * @param threads
+	 *    number of concurrent worker threads
+	 * @param rate
+	 *    target number of requests per second, or 0 to send requests without delays
+	 * @param duration
+	 *    duration of the test in seconds
+	 */
+	public LoadGenerator(IntegerSequenceOperations sequence, String serviceName, int[] indices,
+			Distribution distribution, int threads, double rate, int duration) {
+
+		this.sequence = sequence;
+		this.serviceName = serviceName;
+		this.indices = indices.clone();
+		this.distribution = distribution;
+		this.threads = threads;
+		this.rate = rate;
+		this.duration = duration;
+
+		int min = indices[0], max = indices[0];
+		for (int index : indices) {
+			min = Math.min(min, index);
+			max = Math.max(max, index);
+		}
+		this.minIndex = min;
+		this.maxIndex = max;
+
+		this.zipfCdf = new double[indices.length];
+		double total = 0;
+		for (int i = 0; i < indices.length; i++) {
+			total += 1.0 / (i + 1);
+			this.zipfCdf[i] = total;
+		}
+		for (int i = 0; i < indices.length; i++) {
+			this.zipfCdf[i] /= total;
+		}
+	}
+
+	/**
+	 * Picks the index for the next request.
+	 */
+	private int nextIndex(Random random) {
+		switch (this.distribution) {
+			case ZIPF:
+				int pos = Arrays.binarySearch(this.zipfCdf, random.nextDouble());
+				if (pos < 0) pos = -pos - 1;
+				return this.indices[Math.min(pos, this.indices.length - 1)];
+			case RANGE:
+				return this.minIndex + random.nextInt(this.maxIndex - this.minIndex + 1);
+			default:
+				return this.indices[random.nextInt(this.indices.length)];
+		}
+	}
+
+	/**
+	 * Sends requests from a single worker thread until the deadline.
+	 *
+	 * @param worker
+	 *    0-based number of the worker
+	 * @param start
+	 *    start time of the test as returned by <code>System.nanoTime()</code>
+	 * @return
+	 *    latencies of requests sent by the worker
+	 */
+	private LatencyHistogram work(int worker, long start) throws InterruptedException {
+		LatencyHistogram histogram = new LatencyHistogram();
+		Random random = new Random(worker);
+		long deadline = start + TimeUnit.SECONDS.toNanos(this.duration);
+
+		// In the open-loop mode, workers send requests in turns with the same interval
+		long interval = (this.rate > 0) ? (long) (1e9 * this.threads / this.rate) : 0;
+		long scheduled = start + interval * worker / this.threads;
+
+		while (true) {
+			long now = System.nanoTime();
+			if (interval > 0) {
+				if (scheduled >= deadline) break;
+				if (scheduled > now) {
+					TimeUnit.NANOSECONDS.sleep(scheduled - now);
+				}
+			} else {
+				if (now >= deadline) break;
+				scheduled = now;
+			}
+
+			try {
+				Response response = this.sequence.number(this.nextIndex(random));
+				if (response.discriminator().equals(ResponseType.t_error)) {
+					this.errors.incrementAndGet();
+				}
+			} catch (SystemException e) {
+				this.errors.incrementAndGet();
+			}
+			histogram.record(System.nanoTime() - scheduled);
+			scheduled += interval;
+		}
+
+		return histogram;
+	}
+
+	/**
+	 * Runs the test and prints the report.
+	 *
+	 * @throws InterruptedException
+	 *    if the calling thread is interrupted while waiting for workers
+	 */
+	public void run() throws InterruptedException {
+		System.out.format("Benchmarking %s: %d thread(s), %s, %d s\n", this.serviceName, this.threads,
+				(this.rate > 0) ? String.format("open loop at %.1f requests/s", this.rate) : "closed loop",
+				this.duration);
+
+		final long start = System.nanoTime();
+		final List<LatencyHistogram> results = new ArrayList<LatencyHistogram>();
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int i = 0; i < this.threads; i++) {
+			final int worker = i;
+			Thread thread = new Thread(new Runnable() {
+
+				public void run() {
+					try {
+						LatencyHistogram histogram = work(worker, start);
+						synchronized (results) {
+							results.add(histogram);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}, "bench-" + i);
+			workers.add(thread);
+			thread.start();
+		}
+
+		for (Thread thread : workers) {
+			thread.join();
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+
+		for (LatencyHistogram histogram : results) {
+			this.latencies.add(histogram);
+		}
+		this.printReport(elapsed);
+	}
+
+	private void printReport(double elapsed) {
+		LatencyHistogram h = this.latencies;
+		System.out.format("Requests: %d (errors: %d) in %.1f s\n", h.count(), this.errors.get(), elapsed);
+		System.out.format("Throughput: %.1f requests/s\n", h.count() / elapsed);
+		System.out.format("Latency (ms): mean %.3f, p50 %.3f, p90 %.3f, p99 %.3f, p99.9 %.3f, max %.3f\n",
+				h.mean() / 1e6, h.percentile(50) / 1e6, h.percentile(90) / 1e6,
+				h.percentile(99) / 1e6, h.percentile(99.9) / 1e6, h.max() / 1e6);
+	}
+}
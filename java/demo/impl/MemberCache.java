@@ -0,0 +1,131 @@
+package demo.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread-safe cache of computed sequence members, which can be shared among
+ * several integer sequence implementations. Members are keyed by the implementation
+ * and the index of the member.
+ *
+ * The cache is limited by the total size of cached members in bytes rather than
+ * by the number of entries, since a single member may take megabytes. When the limit
+ * is exceeded, least recently used members are evicted.
+ */
+public class MemberCache {
+
+	/** Key of a cached member. */
+	private static final class Key {
+
+		private final IntegerSequenceImpl sequence;
+
+		private final int index;
+
+		public Key(IntegerSequenceImpl sequence, int index) {
+			this.sequence = sequence;
+			this.index = index;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) return false;
+			Key other = (Key) obj;
+			return (this.sequence == other.sequence) && (this.index == other.index);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(this.sequence) + this.index;
+		}
+	}
+
+	/** Maximal total size of cached members in bytes. */
+	private final long budget;
+
+	/** Cached members in access order. */
+	private final LinkedHashMap<Key, SequenceMember> members = 
+			new LinkedHashMap<Key, SequenceMember>(64, 0.75f, true);
+
+	/** Total size of cached members in bytes; guarded by this.members. */
+	private long size = 0;
+
+	/**
+	 * Creates a cache with the specified memory budget.
+	 *
+	 * @param budget
+	 *    maximal total size of cached members in bytes
+	 */
+	public MemberCache(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Retrieves a cached member.
+	 *
+	 * @param sequence
+	 *    sequence implementation
+	 * @param index
+	 *    index of the sequence member
+	 * @return
+	 *    cached member, or <code>null</code> if the member is not cached
+	 */
+	public SequenceMember get(IntegerSequenceImpl sequence, int index) {
+		synchronized (this.members) {
+			return this.members.get(new Key(sequence, index));
+		}
+	}
+
+	/**
+	 * Stores a member in the cache, evicting least recently used members if necessary.
+	 * Members larger than the budget of the cache are not stored.
+	 *
+	 * @param sequence
+	 *    sequence implementation
+	 * @param index
+	 *    index of the sequence member
+	 * @param member
+	 *    member to store
+	 */
+	public void put(IntegerSequenceImpl sequence, int index, SequenceMember member) {
+		long memberSize = member.sizeBytes();
+		if (memberSize > this.budget) return;
+
+		Key key = new Key(sequence, index);
+		synchronized (this.members) {
+			SequenceMember old = this.members.put(key, member);
+			if (old != null) {
+				this.size -= old.sizeBytes();
+			}
+			this.size += memberSize;
+
+			Iterator<Map.Entry<Key, SequenceMember>> it = this.members.entrySet().iterator();
+			while ((this.size > this.budget) && it.hasNext()) {
+				Map.Entry<Key, SequenceMember> entry = it.next();
+				if (!entry.getKey().equals(key)) {
+					this.size -= entry.getValue().sizeBytes();
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/** Returns the total size of cached members in bytes. */
+	public long sizeBytes() {
+		synchronized (this.members) {
+			return this.size;
+		}
+	}
+
+	/** Returns the number of cached members. */
+	public int count() {
+		synchronized (this.members) {
+			return this.members.size();
+		}
+	}
+
+	/** Returns the memory budget of the cache in bytes. */
+	public long budget() {
+		return this.budget;
+	}
+}
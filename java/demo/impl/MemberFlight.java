@@ -0,0 +1,86 @@
+package demo.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computation of a sequence member shared by concurrent requests for it. The first request
+ * for a member absent from the cache becomes the leader and computes the member; requests
+ * arriving while the computation is in progress follow the leader and receive its result
+ * instead of computing the member again.
+ */
+class MemberFlight {
+
+	private final CountDownLatch done = new CountDownLatch(1);
+	
+	private volatile SequenceMember member = null;
+	
+	/** Actions to run on completion; <code>null</code> after the flight is completed. */
+	private List<Runnable> callbacks = new ArrayList<Runnable>();
+	
+	/**
+	 * Completes the computation. Callbacks registered with {@link #onComplete(Runnable)}
+	 * are run in the calling thread.
+	 * 
+	 * @param member
+	 *    computed member or an error
+	 */
+	void complete(SequenceMember member) {
+		List<Runnable> callbacks;
+		synchronized (this) {
+			this.member = member;
+			this.done.countDown();
+			callbacks = this.callbacks;
+			this.callbacks = null;
+		}
+		
+		for (Runnable callback : callbacks) {
+			callback.run();
+		}
+	}
+	
+	/**
+	 * Registers an action to run once the computation completes. If the computation
+	 * is already completed, the action is run immediately in the calling thread.
+	 * 
+	 * @param callback
+	 *    action to run
+	 */
+	void onComplete(Runnable callback) {
+		synchronized (this) {
+			if (this.callbacks != null) {
+				this.callbacks.add(callback);
+				return;
+			}
+		}
+		callback.run();
+	}
+	
+	/**
+	 * Waits for the computation to complete.
+	 * 
+	 * @param deadline
+	 *    deadline of the waiting request
+	 * @return
+	 *    computed member, or <code>null</code> if the deadline is exceeded before completion
+	 * @throws InterruptedException
+	 *    if the waiting thread is interrupted
+	 */
+	SequenceMember await(Deadline deadline) throws InterruptedException {
+		if (deadline.isBounded()) {
+			this.done.await(Math.max(deadline.remainingMillis(), 0), TimeUnit.MILLISECONDS);
+		} else {
+			this.done.await();
+		}
+		return this.member;
+	}
+	
+	/**
+	 * Returns the computed member, or <code>null</code> if the computation is in progress.
+	 */
+	SequenceMember member() {
+		return this.member;
+	}
+}
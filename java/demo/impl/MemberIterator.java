@@ -0,0 +1,16 @@
+package demo.impl;
+
+/**
+ * Iterator over members of an integer sequence with indices forming 
+ * an arithmetic progression. Iterators are used by a single thread at a time.
+ */
+public interface MemberIterator {
+
+	/**
+	 * Gets the next member of the progression.
+	 * 
+	 * @return
+	 *    computed member or an error
+	 */
+	SequenceMember next();
+}
@@ -0,0 +1,202 @@
+package demo.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.omg.CORBA.BAD_PARAM;
+import org.omg.CORBA.CompletionStatus;
+import org.omg.CORBA.OBJECT_NOT_EXIST;
+import org.omg.CORBA.TRANSIENT;
+import org.omg.PortableServer.POA;
+
+import demo.NumberFormat;
+import demo.RangeCursor;
+import demo.RangeCursorHelper;
+import demo.Response;
+
+/**
+ * Servant for a cursor over members of a range query. Members are computed
+ * page by page as the client requests them; each page is limited both by member count
+ * and by the size of the numbers it contains. Pages, including the creation of the iterator
+ * over members, are computed on the compute executor of the sequence once the admission
+ * control lets them in, like other computations. The cursor is deactivated when the client
+ * destroys it or when it is not accessed for {@link #IDLE_TIMEOUT} milliseconds.
+ */
+class RangeCursorImpl extends demo.RangeCursorPOA {
+
+	/** Time after which unused cursors are destroyed, in milliseconds. */
+	public static final long IDLE_TIMEOUT = 60000;
+
+	/** Sequence, to which the range belongs. */
+	private final IntegerSequenceImpl sequence;
+
+	/** Difference between indices of consecutive members. */
+	private final int step;
+
+	/** Format of numbers in responses. */
+	private final NumberFormat format;
+
+	/** 
+	 * Iterator over members, or <code>null</code> if it is not created yet; accessed 
+	 * only while pageLock is held, possibly by the thread computing a page.
+	 */
+	private MemberIterator members = null;
+
+	/** Index of the next member to retrieve; guarded by pageLock. */
+	private int index;
+
+	/** Number of members that were not retrieved yet. */
+	private volatile int remaining;
+
+	/** Is the cursor destroyed? */
+	private volatile boolean destroyed = false;
+
+	/** Lock serializing computations of pages, which does not block other operations. */
+	private final Object pageLock = new Object();
+
+	private final ServantLease lease;
+
+	/**
+	 * Creates a cursor.
+	 * 
+	 * @param sequence
+	 *    sequence to retrieve members from; conversion times and sizes of retrieved members 
+	 *    are recorded in its metrics
+	 * @param start
+	 *    index of the first member of the range
+	 * @param count
+	 *    number of members in the range
+	 * @param step
+	 *    positive difference between indices of consecutive members
+	 * @param format
+	 *    format of numbers in responses
+	 */
+	public RangeCursorImpl(IntegerSequenceImpl sequence, int start, int count, int step, 
+			NumberFormat format) {
+		this.sequence = sequence;
+		this.index = start;
+		this.remaining = count;
+		this.step = step;
+		this.format = format;
+		this.lease = new ServantLease(this, IDLE_TIMEOUT, new Runnable() {
+
+			public void run() {
+				free();
+			}
+		});
+	}
+
+	/**
+	 * Activates the cursor.
+	 *
+	 * @param poa
+	 *    portable object adapter to activate the cursor in
+	 * @return
+	 *    reference to the activated cursor
+	 * @throws ServiceException
+	 *    if a CORBA-related error occurs during activation
+	 */
+	public RangeCursor activate(POA poa) throws ServiceException {
+		return RangeCursorHelper.narrow(this.lease.activate(poa));
+	}
+
+	private void free() {
+		this.destroyed = true;
+	}
+
+	@Override
+	public int remaining() {
+		return this.remaining;
+	}
+
+	@Override
+	public Response[] next(int maxCount) {
+		this.lease.touch();
+		if (maxCount <= 0) {
+			throw new BAD_PARAM("Page size must be positive");
+		}
+
+		List<Response> page;
+		synchronized (this.pageLock) {
+			if (this.destroyed) {
+				throw new OBJECT_NOT_EXIST("Cursor is destroyed");
+			}
+			final int size = Math.min(Math.min(maxCount, this.remaining), demo.MAX_PAGE_SIZE.value);
+			if (size == 0) return new Response[0];
+
+			double cost = this.sequence.rangeCost(this.index, size, this.step);
+			if (this.members == null) cost += this.sequence.cost(this.index);
+			try {
+				page = this.sequence.executeAdmitted(cost, new Callable<List<Response>>() {
+
+					public List<Response> call() {
+						return computePage(size);
+					}
+				});
+			} catch (ServiceException e) {
+				// Nothing was retrieved, so the client may request the page again
+				int minor = IntegerSequenceImpl.BUSY_MESSAGE.equals(e.getMessage()) 
+						? demo.BUSY_MINOR.value : 0;
+				throw new TRANSIENT(e.getMessage(), minor, CompletionStatus.COMPLETED_NO);
+			}
+			this.index += page.size() * this.step;
+			this.remaining -= page.size();
+		}
+
+		// Computing a page may take a while; do not count it as idle time
+		this.lease.touch();
+		return page.toArray(new Response[page.size()]);
+	}
+
+	/**
+	 * Computes a page of at most the specified number of members. If a member cannot
+	 * be computed (e.g., because the deadline is exceeded), the page ends early;
+	 * if it is the first member, the exception is rethrown.
+	 */
+	private List<Response> computePage(int size) {
+		if (this.members == null) {
+			this.members = this.sequence.iterate(this.index, this.step);
+		}
+
+		List<Response> page = new ArrayList<Response>(size);
+		long bytes = 0;
+		// End the page once it is large enough; a single member may exceed the limit
+		while ((page.size() < size) && (bytes < demo.MAX_PAGE_BYTES.value)) {
+			SequenceMember member;
+			try {
+				member = this.members.next();
+			} catch (RuntimeException e) {
+				if (page.isEmpty()) throw e;
+				break;
+			}
+			Response response = this.respond(member);
+			page.add(response);
+			bytes += Math.max(SequenceMetrics.resultSize(response), 0);
+		}
+		return page;
+	}
+
+	/**
+	 * Converts a member into a response, recording the conversion in metrics.
+	 */
+	private Response respond(SequenceMember member) {
+		if (member.isError()) return member.toResponse(this.format);
+		
+		SequenceMetrics metrics = this.sequence.metrics();
+		long tStart = System.nanoTime();
+		Response response = member.toResponse(this.format);
+		if (this.format.equals(NumberFormat.f_decimal)) {
+			metrics.recordConversion(System.nanoTime() - tStart);
+		}
+		metrics.recordResult(response);
+		return response;
+	}
+
+	@Override
+	public void destroy() {
+		if (this.lease.release()) {
+			this.free();
+		}
+	}
+}
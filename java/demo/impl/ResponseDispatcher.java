@@ -0,0 +1,107 @@
+package demo.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.omg.CORBA.ORB;
+import org.omg.CORBA.SystemException;
+import org.omg.CORBA.UserException;
+import org.omg.PortableServer.POA;
+import org.omg.PortableServer.POAHelper;
+
+import demo.Response;
+import demo.ResponseHandler;
+import demo.ResponseHandlerHelper;
+
+/**
+ * Client-side servant receiving responses to asynchronous requests. Responses are matched 
+ * to pending futures by request IDs, so a single dispatcher serves any number
+ * of concurrent requests to any number of services.
+ */
+class ResponseDispatcher extends demo.ResponseHandlerPOA {
+
+	private static ResponseDispatcher instance = null;
+
+	/**
+	 * Returns the dispatcher for the ORB, activating it on the first call.
+	 * 
+	 * @param orb
+	 *    ORB of the client
+	 * @return
+	 * @throws ServiceException
+	 *    if a CORBA-related error occurs during activation
+	 */
+	public static synchronized ResponseDispatcher forOrb(ORB orb) throws ServiceException {
+		if (instance == null) {
+			ResponseDispatcher dispatcher = new ResponseDispatcher();
+			try {
+				POA poa = POAHelper.narrow(orb.resolve_initial_references("RootPOA"));
+				poa.the_POAManager().activate();
+				dispatcher.reference = ResponseHandlerHelper.narrow(poa.servant_to_reference(dispatcher));
+			} catch (UserException | SystemException e) {
+				throw new ServiceException("Failed to activate response handler", e);
+			}
+			instance = dispatcher;
+		}
+		return instance;
+	}
+
+	private final AtomicInteger nextId = new AtomicInteger();
+
+	/** Futures waiting for responses, indexed by request IDs. */
+	private final ConcurrentMap<Integer, ResponseFuture> pending = 
+			new ConcurrentHashMap<Integer, ResponseFuture>();
+
+	private ResponseHandler reference = null;
+
+	private ResponseDispatcher() {
+	}
+
+	/**
+	 * Returns the reference to pass to services along with requests.
+	 */
+	public ResponseHandler reference() {
+		return this.reference;
+	}
+
+	/**
+	 * Registers a new pending request.
+	 * 
+	 * @param index
+	 *    index of the requested member
+	 * @return
+	 *    future for the response
+	 */
+	public ResponseFuture register(int index) {
+		int requestId = this.nextId.incrementAndGet();
+		ResponseFuture future = new ResponseFuture(this, requestId, index);
+		this.pending.put(requestId, future);
+		return future;
+	}
+
+	/**
+	 * Stops waiting for a response to the request.
+	 * 
+	 * @return
+	 *    <code>true</code> if the request was pending
+	 */
+	boolean forget(int requestId) {
+		return this.pending.remove(requestId) != null;
+	}
+
+	/**
+	 * Returns the number of requests waiting for responses.
+	 */
+	public int pendingCount() {
+		return this.pending.size();
+	}
+
+	@Override
+	public void deliver(int requestId, int index, Response value) {
+		ResponseFuture future = this.pending.remove(requestId);
+		if (future != null) {
+			future.complete(value);
+		}
+	}
+}
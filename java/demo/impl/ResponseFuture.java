@@ -0,0 +1,98 @@
+package demo.impl;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import demo.Response;
+
+/**
+ * Pending result of an asynchronous request for a sequence member.
+ * The future is completed when the service delivers the response to the client's handler.
+ */
+public class ResponseFuture implements Future<Response> {
+
+	/** Index of the requested member. */
+	public final int index;
+
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	private volatile Response response = null;
+
+	private volatile boolean cancelled = false;
+
+	private final ResponseDispatcher dispatcher;
+
+	private final int requestId;
+
+	ResponseFuture(ResponseDispatcher dispatcher, int requestId, int index) {
+		this.dispatcher = dispatcher;
+		this.requestId = requestId;
+		this.index = index;
+	}
+
+	/**
+	 * Returns the ID of the request passed to the service.
+	 */
+	int requestId() {
+		return this.requestId;
+	}
+
+	/**
+	 * Completes the future with the delivered response.
+	 */
+	void complete(Response response) {
+		this.response = response;
+		this.done.countDown();
+	}
+
+	/**
+	 * Cancels waiting for the response. The service still computes the member,
+	 * but the delivered response is discarded.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if (this.isDone() || !this.dispatcher.forget(this.requestId)) {
+			return false;
+		}
+		this.cancelled = true;
+		this.done.countDown();
+		return true;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return this.cancelled;
+	}
+
+	@Override
+	public boolean isDone() {
+		return this.done.getCount() == 0;
+	}
+
+	@Override
+	public Response get() throws InterruptedException, ExecutionException {
+		this.done.await();
+		return this.result();
+	}
+
+	@Override
+	public Response get(long timeout, TimeUnit unit) 
+			throws InterruptedException, ExecutionException, TimeoutException {
+		
+		if (!this.done.await(timeout, unit)) {
+			throw new TimeoutException("Response for index " + this.index + " not delivered");
+		}
+		return this.result();
+	}
+
+	private Response result() {
+		if (this.cancelled) {
+			throw new CancellationException("Request cancelled");
+		}
+		return this.response;
+	}
+}
@@ -0,0 +1,151 @@
+package demo.impl;
+
+import java.math.BigInteger;
+
+import demo.NumberFormat;
+import demo.Response;
+
+/**
+ * Computed member of an integer sequence, or an error that occurred computing it.
+ * The decimal representation of the member is computed lazily, when a response
+ * in the decimal format is requested for the first time.
+ */
+public final class SequenceMember {
+
+	/** log10(2) used to estimate number of decimal digits. */
+	private static final double LOG10_2 = Math.log10(2);
+
+	/** Approximate memory overhead of a member in bytes. */
+	private static final int OVERHEAD = 96;
+
+	/** Value of the member, or <code>null</code> in case of an error. */
+	private final BigInteger value;
+
+	/** Error message, or <code>null</code> if the member was computed successfully. */
+	private final String error;
+	
+	/** Is the error caused by circumstances of the request rather than by the member itself? */
+	private final boolean retryable;
+
+	/** Decimal representation of the value, or <code>null</code> if it is not computed yet. */
+	private volatile String decimal = null;
+
+	private SequenceMember(BigInteger value, String error, boolean retryable) {
+		this.value = value;
+		this.error = error;
+		this.retryable = retryable;
+	}
+
+	/**
+	 * Creates a successfully computed member.
+	 *
+	 * @param value
+	 *    value of the member
+	 * @return
+	 */
+	public static SequenceMember of(BigInteger value) {
+		return new SequenceMember(value, null, false);
+	}
+
+	/**
+	 * Creates a member representing an error.
+	 *
+	 * @param message
+	 *    error message
+	 * @return
+	 */
+	public static SequenceMember error(String message) {
+		return new SequenceMember(null, message, false);
+	}
+	
+	/**
+	 * Creates a member representing an error caused by circumstances of the request,
+	 * such as an exceeded deadline or overload of the server. Another request
+	 * for the same member may succeed.
+	 *
+	 * @param message
+	 *    error message
+	 * @return
+	 */
+	public static SequenceMember retryableError(String message) {
+		return new SequenceMember(null, message, true);
+	}
+
+	/** Checks whether this member represents an error. */
+	public boolean isError() {
+		return this.error != null;
+	}
+
+	/** Checks whether this member represents an error caused by circumstances of the request. */
+	public boolean isRetryable() {
+		return this.retryable;
+	}
+
+	/** Returns the error message, or <code>null</code> if the member was computed successfully. */
+	public String errorMessage() {
+		return this.error;
+	}
+
+	/** Returns the value of this member, or <code>null</code> in case of an error. */
+	public BigInteger value() {
+		return this.value;
+	}
+
+	/**
+	 * Returns the decimal representation of this member. The representation is computed
+	 * on the first call and is reused afterwards; concurrent callers wait for a single
+	 * conversion.
+	 */
+	public String decimal() {
+		String str = this.decimal;
+		if (str == null) {
+			synchronized (this) {
+				str = this.decimal;
+				if (str == null) {
+					str = DecimalConverter.toString(this.value);
+					this.decimal = str;
+				}
+			}
+		}
+		return str;
+	}
+
+	/**
+	 * Estimates memory occupied by this member including its decimal representation,
+	 * whether or not the representation is already computed.
+	 *
+	 * @return
+	 *    approximate size in bytes
+	 */
+	public long sizeBytes() {
+		if (this.isError()) return OVERHEAD + 2L * this.error.length();
+		long bits = this.value.bitLength();
+		return OVERHEAD + bits / 8 + 2L * (long) (bits * LOG10_2 + 1);
+	}
+
+	/**
+	 * Wraps this member into a response.
+	 *
+	 * @param format
+	 *    format of the number in the response
+	 * @return
+	 */
+	public Response toResponse(NumberFormat format) {
+		Response response = new Response();
+		if (this.isError()) {
+			response.message(this.error);
+		} else if (format.equals(NumberFormat.f_compact) && (this.value.bitLength() < Long.SIZE)) {
+			long value = this.value.longValue();
+			if ((int) value == value) {
+				response.intVal((int) value);
+			} else {
+				response.longVal(value);
+			}
+		} else if (!format.equals(NumberFormat.f_decimal)) {
+			response.bytesVal(this.value.toByteArray());
+		} else {
+			response.stringVal(this.decimal());
+		}
+		return response;
+	}
+}
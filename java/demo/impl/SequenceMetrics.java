@@ -0,0 +1,297 @@
+package demo.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import demo.Response;
+import demo.ResponseType;
+
+/**
+ * Request statistics of an integer sequence implementation, which are exposed
+ * as a JMX MBean. Besides the statistics recorded by the implementation,
+ * the MBean reports the state of its cache, admission control and compute executor.
+ */
+public class SequenceMetrics implements SequenceMetricsMBean {
+
+	private final IntegerSequenceImpl sequence;
+
+	private final AtomicLong requests = new AtomicLong();
+
+	private final AtomicLong errors = new AtomicLong();
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	// Histograms are not thread-safe, so they are guarded by this object.
+	// Besides latencies, they are used to record batch and result sizes.
+
+	private LatencyHistogram batchSizes = new LatencyHistogram();
+
+	private LatencyHistogram computeTimes = new LatencyHistogram();
+
+	private LatencyHistogram conversionTimes = new LatencyHistogram();
+
+	private LatencyHistogram resultSizes = new LatencyHistogram();
+
+	private long resultBytes = 0;
+
+	public SequenceMetrics(IntegerSequenceImpl sequence) {
+		this.sequence = sequence;
+	}
+
+	/**
+	 * Records the start of a request.
+	 *
+	 * @param batchSize
+	 *    number of requested members, or 0 if the request does not return members directly
+	 *    (e.g., a range request)
+	 */
+	void requestStarted(int batchSize) {
+		this.requests.incrementAndGet();
+		this.inFlight.incrementAndGet();
+		if (batchSize > 0) {
+			synchronized (this) {
+				this.batchSizes.record(batchSize);
+			}
+		}
+	}
+
+	/**
+	 * Records the completion of a request.
+	 *
+	 * @param failed
+	 *    has the request failed, or was it answered with an error?
+	 */
+	void requestCompleted(boolean failed) {
+		this.inFlight.decrementAndGet();
+		if (failed) this.errors.incrementAndGet();
+	}
+
+	/**
+	 * Records the completion of a request answered with the specified responses.
+	 *
+	 * @param responses
+	 *    responses to the request, or <code>null</code> if the request has failed
+	 */
+	void requestCompleted(Response... responses) {
+		boolean failed = (responses == null);
+		if (!failed) {
+			for (Response response : responses) {
+				failed |= (response == null) || response.discriminator().equals(ResponseType.t_error);
+			}
+		}
+		this.requestCompleted(failed);
+	}
+
+	/** Records the duration of a computation of one or more members. */
+	synchronized void recordCompute(long nanos) {
+		this.computeTimes.record(nanos);
+	}
+
+	/** Records the duration of a conversion of a member into the decimal representation. */
+	synchronized void recordConversion(long nanos) {
+		this.conversionTimes.record(nanos);
+	}
+
+	/**
+	 * Records the size of a number sent to a client.
+	 *
+	 * @param response
+	 *    response containing the number; errors are ignored
+	 */
+	void recordResult(Response response) {
+		long size = resultSize(response);
+		if (size >= 0) {
+			this.recordResult(size);
+		}
+	}
+
+	/**
+	 * Returns the size of a number contained in a response.
+	 *
+	 * @param response
+	 *    response containing the number
+	 * @return
+	 *    size of the number in bytes, or -1 if the response is an error
+	 */
+	static long resultSize(Response response) {
+		ResponseType type = response.discriminator();
+		if (type.equals(ResponseType.t_string)) {
+			return response.stringVal().length();
+		} else if (type.equals(ResponseType.t_bytes)) {
+			return response.bytesVal().length;
+		} else if (type.equals(ResponseType.t_int)) {
+			return 4;
+		} else if (type.equals(ResponseType.t_longlong)) {
+			return 8;
+		} else {
+			return -1;
+		}
+	}
+
+	/** Records the size of a number sent to a client, in bytes. */
+	synchronized void recordResult(long size) {
+		this.resultSizes.record(size);
+		this.resultBytes += size;
+	}
+
+	@Override
+	public long getRequestCount() {
+		return this.requests.get();
+	}
+
+	@Override
+	public long getErrorCount() {
+		return this.errors.get();
+	}
+
+	@Override
+	public int getInFlightCount() {
+		return this.inFlight.get();
+	}
+
+	@Override
+	public synchronized double getBatchSizeMean() {
+		return this.batchSizes.mean();
+	}
+
+	@Override
+	public synchronized long getBatchSizeP99() {
+		return this.batchSizes.percentile(99);
+	}
+
+	@Override
+	public synchronized long getBatchSizeMax() {
+		return this.batchSizes.max();
+	}
+
+	@Override
+	public synchronized long getComputeCount() {
+		return this.computeTimes.count();
+	}
+
+	@Override
+	public synchronized double getComputeMeanNanos() {
+		return this.computeTimes.mean();
+	}
+
+	@Override
+	public synchronized long getComputeP50Nanos() {
+		return this.computeTimes.percentile(50);
+	}
+
+	@Override
+	public synchronized long getComputeP99Nanos() {
+		return this.computeTimes.percentile(99);
+	}
+
+	@Override
+	public synchronized long getComputeMaxNanos() {
+		return this.computeTimes.max();
+	}
+
+	@Override
+	public synchronized long getConversionCount() {
+		return this.conversionTimes.count();
+	}
+
+	@Override
+	public synchronized double getConversionMeanNanos() {
+		return this.conversionTimes.mean();
+	}
+
+	@Override
+	public synchronized long getConversionP50Nanos() {
+		return this.conversionTimes.percentile(50);
+	}
+
+	@Override
+	public synchronized long getConversionP99Nanos() {
+		return this.conversionTimes.percentile(99);
+	}
+
+	@Override
+	public synchronized long getConversionMaxNanos() {
+		return this.conversionTimes.max();
+	}
+
+	@Override
+	public synchronized long getResultBytesTotal() {
+		return this.resultBytes;
+	}
+
+	@Override
+	public synchronized double getResultBytesMean() {
+		return this.resultSizes.mean();
+	}
+
+	@Override
+	public synchronized long getResultBytesP99() {
+		return this.resultSizes.percentile(99);
+	}
+
+	@Override
+	public synchronized long getResultBytesMax() {
+		return this.resultSizes.max();
+	}
+
+	@Override
+	public long getCacheHits() {
+		return this.sequence.cacheHits();
+	}
+
+	@Override
+	public long getCacheMisses() {
+		return this.sequence.cacheMisses();
+	}
+
+	@Override
+	public double getCacheHitRate() {
+		return this.sequence.cacheHitRate();
+	}
+
+	@Override
+	public long getCoalescedCount() {
+		return this.sequence.coalescedCount();
+	}
+
+	@Override
+	public int getAdmissionActiveCount() {
+		AdmissionController admission = this.sequence.admission();
+		return (admission == null) ? 0 : admission.activeCount();
+	}
+
+	@Override
+	public int getAdmissionQueueDepth() {
+		AdmissionController admission = this.sequence.admission();
+		return (admission == null) ? 0 : admission.queueDepth();
+	}
+
+	@Override
+	public long getAdmissionRejectedCount() {
+		AdmissionController admission = this.sequence.admission();
+		return (admission == null) ? 0 : admission.rejectedCount();
+	}
+
+	@Override
+	public int getExecutorActiveCount() {
+		ComputeExecutor executor = this.sequence.executor();
+		return (executor == null) ? 0 : executor.activeCount();
+	}
+
+	@Override
+	public int getExecutorQueueDepth() {
+		ComputeExecutor executor = this.sequence.executor();
+		return (executor == null) ? 0 : executor.queueDepth();
+	}
+
+	@Override
+	public synchronized void reset() {
+		this.requests.set(0);
+		this.errors.set(0);
+		this.batchSizes = new LatencyHistogram();
+		this.computeTimes = new LatencyHistogram();
+		this.conversionTimes = new LatencyHistogram();
+		this.resultSizes = new LatencyHistogram();
+		this.resultBytes = 0;
+	}
+}
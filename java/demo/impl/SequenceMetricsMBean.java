@@ -0,0 +1,84 @@
+package demo.impl;
+
+/**
+ * Management interface of {@link SequenceMetrics}. Latencies are in nanoseconds,
+ * and percentiles are upper estimates with relative precision better than 1%.
+ */
+public interface SequenceMetricsMBean {
+
+	/** Returns the number of requests for members of the sequence, including streams and ranges. */
+	long getRequestCount();
+
+	/** Returns the number of requests that failed or were answered with an error. */
+	long getErrorCount();
+
+	/** Returns the number of requests being processed. */
+	int getInFlightCount();
+
+	/** Returns the mean number of members in a single or batch request. */
+	double getBatchSizeMean();
+
+	/** Returns the 99th percentile of the number of members in a single or batch request. */
+	long getBatchSizeP99();
+
+	/** Returns the maximal number of members in a single or batch request. */
+	long getBatchSizeMax();
+
+	/** Returns the number of computations; a batch computed together counts as one. */
+	long getComputeCount();
+
+	double getComputeMeanNanos();
+
+	long getComputeP50Nanos();
+
+	long getComputeP99Nanos();
+
+	long getComputeMaxNanos();
+
+	/** Returns the number of responses with a decimal representation of a member. */
+	long getConversionCount();
+
+	double getConversionMeanNanos();
+
+	long getConversionP50Nanos();
+
+	long getConversionP99Nanos();
+
+	long getConversionMaxNanos();
+
+	/** Returns the total size of numbers sent in responses, in bytes. */
+	long getResultBytesTotal();
+
+	double getResultBytesMean();
+
+	long getResultBytesP99();
+
+	long getResultBytesMax();
+
+	long getCacheHits();
+
+	long getCacheMisses();
+
+	double getCacheHitRate();
+
+	/** Returns the number of requests that joined a computation started by another request. */
+	long getCoalescedCount();
+
+	/** Returns the number of running computations admitted by admission control. */
+	int getAdmissionActiveCount();
+
+	/** Returns the number of computations waiting for admission. */
+	int getAdmissionQueueDepth();
+
+	/** Returns the number of computations rejected by admission control. */
+	long getAdmissionRejectedCount();
+
+	/** Returns the number of running tasks of the compute executor shared by all sequences. */
+	int getExecutorActiveCount();
+
+	/** Returns the number of tasks waiting for the compute executor shared by all sequences. */
+	int getExecutorQueueDepth();
+
+	/** Clears request statistics and histograms; cache and admission counters are not affected. */
+	void reset();
+}
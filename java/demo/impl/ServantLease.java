@@ -0,0 +1,151 @@
+package demo.impl;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.omg.CORBA.OBJECT_NOT_EXIST;
+import org.omg.CORBA.SystemException;
+import org.omg.CORBA.UserException;
+import org.omg.PortableServer.POA;
+import org.omg.PortableServer.Servant;
+
+/**
+ * Manages lifetime of a transient servant created for a single client, such as a stream
+ * of digits. The servant is deactivated when it is released explicitly or when it is not
+ * accessed for the specified idle timeout, whichever comes first.
+ */
+class ServantLease {
+
+	/** Executor to expire idle servants. */
+	private static final ScheduledExecutorService reaper =
+			Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "servant-reaper");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	private final Servant servant;
+
+	/** Time after which the idle servant is released, in milliseconds. */
+	private final long idleTimeout;
+
+	/** Action invoked when the servant expires, or <code>null</code>. */
+	private final Runnable onExpire;
+
+	/** Time of the last access to the servant. */
+	private long lastAccess = System.currentTimeMillis();
+
+	/** Was the servant released? */
+	private boolean released = false;
+
+	/** POA the servant is activated in. */
+	private POA poa = null;
+
+	/** Identifier of the servant in the POA. */
+	private byte[] objectId = null;
+
+	/**
+	 * Creates a lease for a servant.
+	 *
+	 * @param servant
+	 *    servant to manage
+	 * @param idleTimeout
+	 *    time after which the idle servant is released, in milliseconds
+	 * @param onExpire
+	 *    action to free resources of the servant when it expires, or <code>null</code>
+	 */
+	public ServantLease(Servant servant, long idleTimeout, Runnable onExpire) {
+		this.servant = servant;
+		this.idleTimeout = idleTimeout;
+		this.onExpire = onExpire;
+	}
+
+	/**
+	 * Activates the servant and schedules its expiration in case it becomes idle.
+	 *
+	 * @param poa
+	 *    portable object adapter to activate the servant in
+	 * @return
+	 *    reference to the activated servant
+	 * @throws ServiceException
+	 *    if a CORBA-related error occurs during activation
+	 */
+	public synchronized org.omg.CORBA.Object activate(POA poa) throws ServiceException {
+		try {
+			this.objectId = poa.activate_object(this.servant);
+			this.poa = poa;
+			this.scheduleCheck(this.idleTimeout);
+			return poa.id_to_reference(this.objectId);
+		} catch (UserException | SystemException e) {
+			throw new ServiceException("Failed to activate servant", e);
+		}
+	}
+
+	private void scheduleCheck(long delay) {
+		reaper.schedule(new Runnable() {
+
+			public void run() {
+				if (checkIdle() && (onExpire != null)) {
+					onExpire.run();
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Releases the servant if it is idle, or schedules the next check otherwise.
+	 *
+	 * @return
+	 *    <code>true</code> if the servant was released by this call
+	 */
+	private synchronized boolean checkIdle() {
+		if (this.released) return false;
+
+		long idle = System.currentTimeMillis() - this.lastAccess;
+		if (idle >= this.idleTimeout) {
+			return this.release();
+		} else {
+			this.scheduleCheck(this.idleTimeout - idle);
+			return false;
+		}
+	}
+
+	/**
+	 * Marks an access to the servant.
+	 *
+	 * @throws OBJECT_NOT_EXIST
+	 *    if the servant is already released
+	 */
+	public synchronized void touch() {
+		if (this.released) {
+			throw new OBJECT_NOT_EXIST("Object is destroyed");
+		}
+		this.lastAccess = System.currentTimeMillis();
+	}
+
+	/**
+	 * Deactivates the servant.
+	 *
+	 * @return
+	 *    <code>true</code> if the servant was released by this call,
+	 *    <code>false</code> if it was already released
+	 */
+	public synchronized boolean release() {
+		if (this.released) return false;
+		this.released = true;
+
+		try {
+			if (this.poa != null) {
+				this.poa.deactivate_object(this.objectId);
+			}
+		} catch (UserException | SystemException e) {
+			// The servant is already unusable; nothing else to clean up
+		}
+		return true;
+	}
+}
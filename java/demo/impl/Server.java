@@ -1,11 +1,22 @@
 package demo.impl;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.LogManager;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import demo.impl.seq.CheckpointStore;
+import demo.impl.seq.FactorialImpl;
+import demo.impl.seq.FibonacciDoublingImpl;
 import demo.impl.seq.FibonacciImpl;
 import demo.impl.seq.FibonacciNaiveImpl;
+import demo.impl.seq.PrimesImpl;
 import demo.impl.seq.RandomPrimeImpl;
 
 public class Server {
@@ -21,17 +32,63 @@ public class Server {
 	}
 	
 	private static final String USAGE = 
-		"Usage: server [--list | --help]\n" +
+		"Usage: server [option...]\n" +
+		"       server (--list | --help)\n" +
 		"\n" +
 		"Runs implementations of integer sequences.\n" +
 		"\n" +
 		"Options:\n" +
+		"    --matrix-cache MB\n" +
+		"        Memory budget for cached matrix powers in fib.java, in megabytes (default: 16).\n" +
+		"    --naive-checkpoints INTERVAL\n" +
+		"        Save intermediate values in fib.naive-java every INTERVAL indices,\n" +
+		"        so later requests can resume from them (default: 0, disabled).\n" +
+		"    --naive-checkpoint-cache MB\n" +
+		"        Memory budget for checkpoints in fib.naive-java, in megabytes (default: 64);\n" +
+		"        least recently used checkpoints are evicted when it is exceeded.\n" +
+		"    --checkpoint-file FILE\n" +
+		"        Save pairs of consecutive Fibonacci numbers computed by fib.java\n" +
+		"        and fib.naive-java to the specified file, and resume computations\n" +
+		"        from them, including after a restart of the server.\n" +
+		"    --checkpoint-interval INTERVAL\n" +
+		"        Distance between indices of saved checkpoints (default: 100000); \n" +
+		"        checkpoints at powers of two are saved as well.\n" +
+		"    --result-cache MB\n" +
+		"        Memory budget for cached sequence members, in megabytes (default: 64).\n" +
+		"        Zero value disables caching.\n" +
+		"    --compute-threads N\n" +
+		"        Maximal number of concurrent computations (default: number of processors).\n" +
+		"        Parallel parts of computations (product trees, prime sieving, decimal\n" +
+		"        conversion, batch members) run in one pool with the same number of threads,\n" +
+		"        which is shared by all sequences.\n" +
+		"    --compute-queue N\n" +
+		"        Maximal number of computations waiting for a free thread (default: 256);\n" +
+		"        further requests are answered with an error.\n" +
+		"    --admission-concurrency N\n" +
+		"        Maximal number of concurrent computations for each sequence\n" +
+		"        (default: number of compute threads). Zero value disables admission control.\n" +
+		"    --admission-budget N\n" +
+		"        Maximal total cost of concurrent computations for each sequence (default: 2),\n" +
+		"        where the computation of the member with the maximal index costs 1.\n" +
+		"    --admission-queue N\n" +
+		"        Maximal number of computations waiting for admission for each sequence\n" +
+		"        (default: 64); further requests are answered with an error. Waiting\n" +
+		"        computations of different clients are admitted in turn.\n" +
 		"    --list\n" +
 		"        List implementations hosted by this server and exit.\n" +
 		"    --help\n" +
 		"        Print this help message and exit.";
 
+	/** Default memory budget for cached sequence members in bytes. */
+	private static final long DEFAULT_RESULT_CACHE_SIZE = 64 << 20;
+
+	/** Default distance between persistent Fibonacci checkpoints. */
+	private static final int DEFAULT_CHECKPOINT_INTERVAL = 100000;
+
 	private static final String DELIMITER = "--------------------------------------------------";
+	
+	/** JMX domain of MBeans with metrics of the hosted implementations. */
+	private static final String METRICS_DOMAIN = "demo.impl";
 
 	/** Directory containing integer sequence services. */
 	private final IntegerSequenceDir dir;
@@ -39,6 +96,50 @@ public class Server {
 	/** Working mode of the application. */
 	private Mode mode = Mode.RUN;
 	
+	/** Memory budget for cached matrix powers in bytes. */
+	private long matrixCacheSize = FibonacciImpl.DEFAULT_CACHE_SIZE;
+	
+	/** Distance between checkpoints in fib.naive-java; 0 disables checkpoints. */
+	private int naiveCheckpointInterval = 0;
+	
+	/** Memory budget for checkpoints in fib.naive-java in bytes. */
+	private long naiveCheckpointBudget = FibonacciNaiveImpl.DEFAULT_CHECKPOINT_BUDGET;
+	
+	/** File with persistent Fibonacci checkpoints, or <code>null</code> if they are not used. */
+	private String checkpointFile = null;
+	
+	/** Distance between persistent Fibonacci checkpoints. */
+	private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+	
+	/** Memory budget for cached sequence members in bytes. */
+	private long resultCacheSize = DEFAULT_RESULT_CACHE_SIZE;
+	
+	/** Maximal number of concurrent computations. */
+	private int computeThreads = Runtime.getRuntime().availableProcessors();
+	
+	/** Maximal number of computations waiting for execution. */
+	private int computeQueueSize = ComputeExecutor.DEFAULT_QUEUE_SIZE;
+	
+	/** 
+	 * Maximal number of concurrent computations for each sequence; 0 disables admission control,
+	 * and a negative value means the number of compute threads.
+	 */
+	private int admissionConcurrency = -1;
+	
+	/** Maximal total cost of concurrent computations for each sequence. */
+	private int admissionBudget = AdmissionController.DEFAULT_COST_BUDGET;
+	
+	/** Maximal number of computations waiting for admission for each sequence. */
+	private int admissionQueueSize = AdmissionController.DEFAULT_QUEUE_SIZE;
+	
+	/** Executor for computations shared by all implementations. */
+	private ComputeExecutor executor;
+	
+	/** Implementations using persistent checkpoints. */
+	private final FibonacciImpl fibonacci;
+	
+	private final FibonacciNaiveImpl fibonacciNaive;
+	
 	/** Integer sequence implementations run by this server. */
 	private final List<IntegerSequenceImpl> implementations = new ArrayList<IntegerSequenceImpl>();
 	
@@ -46,10 +147,40 @@ public class Server {
 		this.processArgs(args);
 		this.dir = new IntegerSequenceDir(true);
 		
-		this.implementations.add(new FibonacciImpl());
-		this.implementations.add(new FibonacciNaiveImpl());
+		this.fibonacci = new FibonacciImpl(this.matrixCacheSize);
+		this.fibonacciNaive = new FibonacciNaiveImpl(this.naiveCheckpointInterval, 
+				this.naiveCheckpointBudget);
+		this.implementations.add(this.fibonacci);
+		this.implementations.add(new FibonacciDoublingImpl());
+		this.implementations.add(this.fibonacciNaive);
+		this.implementations.add(new FactorialImpl());
+		this.implementations.add(new PrimesImpl());
 		this.implementations.add(new RandomPrimeImpl());
 		
+		this.executor = ComputeExecutor.platform(this.computeThreads, this.computeQueueSize);
+		for (IntegerSequenceImpl impl : this.implementations) {
+			impl.setExecutor(this.executor);
+		}
+		ComputeExecutor.setParallelism(this.computeThreads);
+		
+		if (this.admissionConcurrency < 0) {
+			this.admissionConcurrency = this.computeThreads;
+		}
+		if (this.admissionConcurrency > 0) {
+			// Costs are relative to the maximal index, so each sequence needs its own controller
+			for (IntegerSequenceImpl impl : this.implementations) {
+				impl.setAdmission(new AdmissionController(this.admissionConcurrency, 
+						this.admissionBudget, this.admissionQueueSize));
+			}
+		}
+		
+		if (this.resultCacheSize > 0) {
+			MemberCache cache = new MemberCache(this.resultCacheSize);
+			for (IntegerSequenceImpl impl : this.implementations) {
+				impl.setCache(cache);
+			}
+		}
+		
 		// Turn off CORBA logging as it is rather tedious
 		final LogManager lman = LogManager.getLogManager();
 		lman.reset();
@@ -66,12 +197,86 @@ public class Server {
 			} else if (arg.equals("--help")) {
 				this.mode = Mode.HELP;
 				return;
+			} else if (arg.equals("--matrix-cache")) {
+				this.matrixCacheSize = parseSize(arg, (argi < args.length) ? args[argi++] : null);
+			} else if (arg.equals("--naive-checkpoints")) {
+				this.naiveCheckpointInterval = parseInt(arg, (argi < args.length) ? args[argi++] : null);
+			} else if (arg.equals("--naive-checkpoint-cache")) {
+				this.naiveCheckpointBudget = parseSize(arg, (argi < args.length) ? args[argi++] : null);
+			} else if (arg.equals("--checkpoint-file")) {
+				if (argi == args.length) {
+					throw new CLIArgumentException("Value for " + arg + " not specified.");
+				}
+				this.checkpointFile = args[argi++];
+			} else if (arg.equals("--checkpoint-interval")) {
+				this.checkpointInterval = parseInt(arg, (argi < args.length) ? args[argi++] : null);
+				if (this.checkpointInterval == 0) {
+					throw new CLIArgumentException("Checkpoint interval must be positive.");
+				}
+			} else if (arg.equals("--result-cache")) {
+				this.resultCacheSize = parseSize(arg, (argi < args.length) ? args[argi++] : null);
+			} else if (arg.equals("--compute-threads")) {
+				this.computeThreads = parseInt(arg, (argi < args.length) ? args[argi++] : null);
+				if (this.computeThreads == 0) {
+					throw new CLIArgumentException("Number of compute threads must be positive.");
+				}
+			} else if (arg.equals("--compute-queue")) {
+				this.computeQueueSize = parseInt(arg, (argi < args.length) ? args[argi++] : null);
+			} else if (arg.equals("--admission-concurrency")) {
+				this.admissionConcurrency = parseInt(arg, (argi < args.length) ? args[argi++] : null);
+			} else if (arg.equals("--admission-budget")) {
+				this.admissionBudget = parseInt(arg, (argi < args.length) ? args[argi++] : null);
+				if (this.admissionBudget == 0) {
+					throw new CLIArgumentException("Admission budget must be positive.");
+				}
+			} else if (arg.equals("--admission-queue")) {
+				this.admissionQueueSize = parseInt(arg, (argi < args.length) ? args[argi++] : null);
 			} else {
 				throw new CLIArgumentException("Invalid argument: " + arg + ".");
 			}
 		}
 	}
 	
+	/**
+	 * Parses a non-negative size in megabytes specified as a value of a CLI option.
+	 * 
+	 * @param option
+	 *    name of the option
+	 * @param value
+	 *    value of the option, or <code>null</code> if the value is missing
+	 * @return
+	 *    size in bytes
+	 * @throws CLIArgumentException
+	 *    if the value is missing or invalid
+	 */
+	private static long parseSize(String option, String value) throws CLIArgumentException {
+		return ((long) parseInt(option, value)) << 20;
+	}
+	
+	/**
+	 * Parses a non-negative integer specified as a value of a CLI option.
+	 * 
+	 * @param option
+	 *    name of the option
+	 * @param value
+	 *    value of the option, or <code>null</code> if the value is missing
+	 * @return
+	 * @throws CLIArgumentException
+	 *    if the value is missing or invalid
+	 */
+	private static int parseInt(String option, String value) throws CLIArgumentException {
+		if (value == null) {
+			throw new CLIArgumentException("Value for " + option + " not specified.");
+		}
+		try {
+			int result = Integer.parseInt(value);
+			if (result < 0) throw new NumberFormatException();
+			return result;
+		} catch (NumberFormatException e) {
+			throw new CLIArgumentException("Invalid value for " + option + ": " + value + ".");
+		}
+	}
+	
 	/**
 	 * Prints information about integer sequence implementations 
 	 * that are run by this server program.
@@ -84,6 +289,62 @@ public class Server {
 		}
 	}
 	
+	/**
+	 * Opens the persistent checkpoint store and passes it to Fibonacci implementations.
+	 * 
+	 * @throws ServiceException
+	 *    if the store cannot be opened
+	 */
+	private void openCheckpoints() throws ServiceException {
+		final CheckpointStore store;
+		try {
+			store = CheckpointStore.open(new File(this.checkpointFile), this.checkpointInterval);
+		} catch (IOException e) {
+			throw new ServiceException("Failed to open checkpoint file " + this.checkpointFile, e);
+		}
+		System.out.format("Loaded %d checkpoint(s) from %s\n", store.count(), this.checkpointFile);
+		
+		this.fibonacci.setCheckpoints(store);
+		this.fibonacciNaive.setCheckpoints(store);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			
+			@Override
+			public void run() {
+				try {
+					store.close();
+				} catch (IOException e) {
+					// Saved checkpoints are still flushed by the OS
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Registers metrics of hosted implementations as MBeans in the platform MBean server,
+	 * so that they can be inspected with JMX tools such as <code>jconsole</code>.
+	 * 
+	 * @throws ServiceException
+	 *    if an MBean cannot be registered
+	 */
+	private void registerMetrics() throws ServiceException {
+		MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+		for (IntegerSequenceImpl impl : this.implementations) {
+			Name name = impl.corbaName();
+			try {
+				ObjectName objectName = new ObjectName(String.format("%s:type=IntegerSequence,id=%s,kind=%s",
+						METRICS_DOMAIN, name.id, name.kind));
+				if (mbeans.isRegistered(objectName)) {
+					mbeans.unregisterMBean(objectName);
+				}
+				mbeans.registerMBean(impl.metrics(), objectName);
+			} catch (JMException e) {
+				throw new ServiceException("Failed to register metrics for " + name, e);
+			}
+		}
+		System.out.format("Metrics of %d implementation(s) are registered as MBeans in domain %s\n", 
+				this.implementations.size(), METRICS_DOMAIN);
+	}
+	
 	/**
 	 * Runs integer sequence implementations.
 	 * 
@@ -91,6 +352,10 @@ public class Server {
 	 *    if a CORBA-related error occurs during operation 
 	 */
 	private void runImplementations() throws ServiceException {
+		if (this.checkpointFile != null) {
+			this.openCheckpoints();
+		}
+		
 		this.dir.unbindAll(new ServiceDirectory.NameFilter() {
 			
 			public boolean matches(Name name) {
@@ -100,7 +365,14 @@ public class Server {
 		for (IntegerSequenceImpl impl : this.implementations) {
 			this.dir.bind(impl.corbaName(), impl);
 		}
+		this.registerMetrics();
 		
+		System.out.format("Computations: %d thread(s), queue size %d\n", this.executor.threads(),
+				this.executor.queueSize());
+		if (this.admissionConcurrency > 0) {
+			System.out.format("Admission control per sequence: %d concurrent, cost budget %d, queue size %d\n",
+					this.admissionConcurrency, this.admissionBudget, this.admissionQueueSize);
+		}
 		System.out.println("Ready for incoming requests...");
 		Config.orb().run();
 	}
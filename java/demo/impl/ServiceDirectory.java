@@ -4,10 +4,16 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.omg.CORBA.COMM_FAILURE;
+import org.omg.CORBA.OBJECT_NOT_EXIST;
 import org.omg.CORBA.ORB;
 import org.omg.CORBA.SystemException;
+import org.omg.CORBA.TRANSIENT;
 import org.omg.CORBA.UserException;
 import org.omg.CosNaming.Binding;
 import org.omg.CosNaming.BindingIteratorHolder;
@@ -16,9 +22,16 @@ import org.omg.CosNaming.NameComponent;
 import org.omg.CosNaming.NamingContextExt;
 import org.omg.CosNaming.NamingContextExtHelper;
 import org.omg.CosNaming.NamingContextPackage.AlreadyBound;
+import org.omg.CORBA.Policy;
+import org.omg.PortableServer.IdAssignmentPolicyValue;
+import org.omg.PortableServer.ImplicitActivationPolicyValue;
+import org.omg.PortableServer.LifespanPolicyValue;
 import org.omg.PortableServer.POA;
 import org.omg.PortableServer.POAHelper;
+import org.omg.PortableServer.RequestProcessingPolicyValue;
 import org.omg.PortableServer.Servant;
+import org.omg.PortableServer.ServantRetentionPolicyValue;
+import org.omg.PortableServer.ThreadPolicyValue;
 
 /**
  * Directory (context) within CORBA naming space containing services with a specific type.
@@ -44,6 +57,44 @@ public class ServiceDirectory<T extends org.omg.CORBA.Object> {
 		boolean matches(Name name);
 	}
 	
+	/**
+	 * Operation performed on a service.
+	 * 
+	 * @param T
+	 *    type of services
+	 * @param R
+	 *    type of the result
+	 */
+	public static interface Invocation<T, R> {
+		
+		/**
+		 * Performs the operation.
+		 * 
+		 * @param service
+		 *    reference to the service
+		 * @return
+		 * @throws ServiceException
+		 *    if the operation fails
+		 */
+		R invoke(T service) throws ServiceException;
+	}
+	
+	/** Reference to a service together with its expiration time. */
+	private static class CachedReference<T> {
+		
+		public final T reference;
+		
+		public final long expires;
+		
+		public CachedReference(T reference, long expires) {
+			this.reference = reference;
+			this.expires = expires;
+		}
+	}
+	
+	/** Default time during which resolved references and service names are reused, in milliseconds. */
+	public static final long DEFAULT_REFERENCE_TTL = 60000;
+	
 	/** Maximal number of services in the directory. */
 	private static final int MAX_SERVICES = 100;
 	
@@ -63,8 +114,24 @@ public class ServiceDirectory<T extends org.omg.CORBA.Object> {
 	
 	private POA rootPOA = null;
 	
+	/** POA for servants bound in this directory. */
+	private POA servantPOA = null;
+	
 	private NamingContextExt serviceDir = null;
 	
+	/** Time during which resolved references and service names are reused, in milliseconds. */
+	private volatile long referenceTtl = DEFAULT_REFERENCE_TTL;
+	
+	/** Resolved references indexed by string representations of service names. */
+	private final ConcurrentMap<String, CachedReference<T>> references = 
+			new ConcurrentHashMap<String, CachedReference<T>>();
+	
+	/** Cached names of bound services, or <code>null</code>. */
+	private volatile Collection<Name> serviceNames = null;
+	
+	/** Expiration time of cached service names. */
+	private volatile long serviceNamesExpire = 0;
+	
 	/**
 	 * Creates a service directory at the specified location.
 	 * 
@@ -163,6 +230,41 @@ public class ServiceDirectory<T extends org.omg.CORBA.Object> {
 		return this.rootPOA;
 	}
 	
+	/**
+	 * Returns the POA, in which services are activated. The POA is a child of the root POA
+	 * with explicit policies: requests are dispatched concurrently by ORB threads,
+	 * and objects are transient and activated implicitly with system-generated IDs.
+	 * Heavy computations are offloaded from dispatch threads by the services themselves.
+	 * 
+	 * @return
+	 *    servant POA
+	 * @throws ServiceException
+	 *    if a CORBA-related error occurs while creating the POA
+	 */
+	private POA servantPOA() throws ServiceException {
+		if (this.servantPOA == null) {
+			POA root = this.rootPOA();
+			try {
+				Policy[] policies = new Policy[] {
+					root.create_thread_policy(ThreadPolicyValue.ORB_CTRL_MODEL),
+					root.create_lifespan_policy(LifespanPolicyValue.TRANSIENT),
+					root.create_id_assignment_policy(IdAssignmentPolicyValue.SYSTEM_ID),
+					root.create_servant_retention_policy(ServantRetentionPolicyValue.RETAIN),
+					root.create_request_processing_policy(
+							RequestProcessingPolicyValue.USE_ACTIVE_OBJECT_MAP_ONLY),
+					root.create_implicit_activation_policy(
+							ImplicitActivationPolicyValue.IMPLICIT_ACTIVATION)
+				};
+				this.servantPOA = root.create_POA(this.directoryName, root.the_POAManager(), policies);
+				for (Policy policy : policies) policy.destroy();
+			} catch (UserException | SystemException e) {
+				throw new ServiceException("Failed to create servant POA", e);
+			}
+		}
+		
+		return this.servantPOA;
+	}
+	
 	/**
 	 * Directory that contains services. If tools are in the server mode,
 	 * the directory is created provided it doesn't exist before the call.
@@ -206,13 +308,91 @@ public class ServiceDirectory<T extends org.omg.CORBA.Object> {
 		return this.serviceDir;
 	}
 	
+	/**
+	 * Sets the time during which resolved references and names of services are reused
+	 * without contacting the naming service.
+	 * 
+	 * @param ttl
+	 *    time to live in milliseconds; 0 disables caching
+	 */
+	public void setReferenceTtl(long ttl) {
+		this.referenceTtl = ttl;
+		this.invalidateAll();
+	}
+	
+	/**
+	 * Forgets the cached reference to a service, e.g., after the service has failed. 
+	 * Cached service names are forgotten as well, since the service may be unbound.
+	 * 
+	 * @param name
+	 *    name of the service
+	 */
+	public void invalidate(Name name) {
+		this.references.remove(name.toString());
+		this.serviceNames = null;
+	}
+	
+	/**
+	 * Forgets all cached references and service names.
+	 */
+	public void invalidateAll() {
+		this.references.clear();
+		this.serviceNames = null;
+	}
+	
+	/**
+	 * Checks whether an exception means that a reference to a service is no longer valid,
+	 * e.g., because the service was restarted or stopped. 
+	 * 
+	 * @param e
+	 *    exception thrown by an operation on the service, possibly wrapped 
+	 *    into a {@link ServiceException}
+	 * @return
+	 */
+	public static boolean isStale(Throwable e) {
+		if (e instanceof ServiceException) e = e.getCause();
+		if (isBusy(e)) return false;
+		// The JDK ORB reports refused connections as COMM_FAILURE rather than TRANSIENT
+		return (e instanceof OBJECT_NOT_EXIST) || (e instanceof TRANSIENT) || (e instanceof COMM_FAILURE);
+	}
+	
+	/**
+	 * Checks whether an exception means that a service has rejected the request because 
+	 * of overload. Such a request may succeed if it is retried later or sent to another service.
+	 * 
+	 * @param e
+	 *    exception thrown by an operation on the service, possibly wrapped 
+	 *    into a {@link ServiceException}
+	 * @return
+	 */
+	public static boolean isBusy(Throwable e) {
+		if (e instanceof ServiceException) e = e.getCause();
+		return (e instanceof TRANSIENT) && (((TRANSIENT) e).minor == demo.BUSY_MINOR.value);
+	}
+	
 	/**
 	 * Retrieves names of currently bound services. Some of these services may be unavailable.
+	 * Names are cached for the {@linkplain #setReferenceTtl(long) reference TTL}.
 	 *
 	 * @throws ServiceException
 	 *    if a CORBA-related error occurs while getting service names
 	 */
 	public Collection<Name> serviceNames() throws ServiceException {
+		Collection<Name> names = this.serviceNames;
+		if ((names != null) && (System.currentTimeMillis() < this.serviceNamesExpire)) {
+			return names;
+		}
+		
+		names = Collections.unmodifiableCollection(this.listServiceNames());
+		this.serviceNamesExpire = System.currentTimeMillis() + this.referenceTtl;
+		this.serviceNames = names;
+		return names;
+	}
+	
+	/**
+	 * Retrieves names of currently bound services from the naming service.
+	 */
+	private Collection<Name> listServiceNames() throws ServiceException {
 		NamingContextExt dir = this.serviceDir();
 		BindingListHolder list = new BindingListHolder();
 		BindingIteratorHolder it = new BindingIteratorHolder();
@@ -226,7 +406,11 @@ public class ServiceDirectory<T extends org.omg.CORBA.Object> {
 	}
 	
 	/**
-	 * Resolves a name to a service.
+	 * Resolves a name to a service. Resolved references are cached for the
+	 * {@linkplain #setReferenceTtl(long) reference TTL}. The service is not contacted 
+	 * during resolution, so the reference may turn out to be stale; in this case,
+	 * callers should {@linkplain #invalidate(Name) invalidate} it, or use 
+	 * {@link #invoke(Name, Invocation)}, which does this automatically.
 	 * 
 	 * @param name
 	 *    name to resolve
@@ -237,17 +421,59 @@ public class ServiceDirectory<T extends org.omg.CORBA.Object> {
 	 *    if a CORBA-related error occurs while resolving the service name
 	 */
 	public T resolve(Name name) throws ServiceException {
+		CachedReference<T> cached = this.references.get(name.toString());
+		if ((cached != null) && (System.currentTimeMillis() < cached.expires)) {
+			return cached.reference;
+		}
+		
 		NamingContextExt dir = this.serviceDir();
 		try {
 			org.omg.CORBA.Object obj = dir.resolve(name.toComponents());
 			T narrowedObj = this.narrow(obj);
-			narrowedObj._non_existent();
+			this.references.put(name.toString(), 
+					new CachedReference<T>(narrowedObj, System.currentTimeMillis() + this.referenceTtl));
 			return narrowedObj;
 		} catch (UserException | SystemException e) {
 			throw new ServiceException("Failed to access service name " + name, e);
 		}
 	}
 	
+	/**
+	 * Performs an operation on a service. If the operation fails because the resolved 
+	 * reference is stale, the reference is invalidated, and the operation is retried once
+	 * with a freshly resolved reference.
+	 * 
+	 * @param name
+	 *    name of the service
+	 * @param invocation
+	 *    operation to perform
+	 * @return
+	 *    result of the operation
+	 * @throws ServiceException
+	 *    if the service cannot be resolved or the operation fails
+	 */
+	public <R> R invoke(Name name, Invocation<T, R> invocation) throws ServiceException {
+		try {
+			return this.tryInvoke(name, invocation);
+		} catch (ServiceException e) {
+			if (!isStale(e)) throw e;
+		}
+		return this.tryInvoke(name, invocation);
+	}
+	
+	private <R> R tryInvoke(Name name, Invocation<T, R> invocation) throws ServiceException {
+		T service = this.resolve(name);
+		try {
+			return invocation.invoke(service);
+		} catch (SystemException e) {
+			if (isStale(e)) this.invalidate(name);
+			throw new ServiceException("Failed to access service " + name, e);
+		} catch (ServiceException e) {
+			if (isStale(e)) this.invalidate(name);
+			throw e;
+		}
+	}
+	
 	/**
 	 * Binds or rebinds an object as a child of a service directory.
 	 * 
@@ -262,9 +488,10 @@ public class ServiceDirectory<T extends org.omg.CORBA.Object> {
 		System.out.format("Binding implementation to name %s\n", name);
 		
 		try {
-			org.omg.CORBA.Object obj = this.rootPOA().servant_to_reference(servant);
+			org.omg.CORBA.Object obj = this.servantPOA().servant_to_reference(servant);
 			obj = this.narrow(obj);
 			this.serviceDir().rebind(name.toComponents(), obj);
+			this.invalidate(name);
 		} catch (UserException | SystemException e) {
 			throw new ServiceException("Failed to bind implementation", e);
 		}
@@ -285,6 +512,7 @@ public class ServiceDirectory<T extends org.omg.CORBA.Object> {
 				System.out.format("Unbinding name %s\n", name);
 				try {
 					this.serviceDir().unbind(name.toComponents());
+					this.invalidate(name);
 				} catch (UserException | SystemException e) {
 					throw new ServiceException("Failed to unbind " + name, e);
 				}
@@ -0,0 +1,588 @@
+package demo.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.omg.CORBA.SystemException;
+import org.omg.CORBA.TRANSIENT;
+import org.omg.CORBA.UNKNOWN;
+
+import demo.IntegerSequenceOperations;
+import demo.Response;
+import demo.ResponseType;
+
+/**
+ * Routes requests among several implementations (replicas) of the same integer sequence.
+ * 
+ * For each replica, the router tracks an exponentially weighted moving average (EWMA) 
+ * of latency and the number of outstanding requests. Each request goes to the better 
+ * of two randomly chosen replicas (power of two choices), where replicas are compared 
+ * by the expected latency EWMA * (outstanding + 1). Replicas that fail with a CORBA system
+ * exception are temporarily ejected, and the request is retried on another replica;
+ * ejection time grows exponentially while the replica keeps failing. Replicas rejecting 
+ * a request because of overload are skipped only for a short time, and the request is retried 
+ * on another replica; the same applies to error responses with {@link demo.BUSY_MESSAGE}. Requests are only sent
+ * to replicas supporting the requested indices, and latencies of error responses 
+ * are not included into the latency EWMA, so that a replica answering quickly with errors
+ * does not attract more requests. While all replicas
+ * are ejected, requests fail immediately.
+ * 
+ * Optionally, requests are hedged: if a request does not complete within the specified 
+ * percentile of recent latencies, a duplicate request is sent to another replica, 
+ * and the response that arrives first is used. The share of hedged requests is limited 
+ * by a budget, so hedging cannot multiply the load on the services.
+ */
+public class ServiceRouter implements IntegerSequenceOperations {
+
+	/** Weight of a new latency sample in the moving average. */
+	private static final double EWMA_ALPHA = 0.2;
+	
+	/** Number of consecutive failures after which a replica is ejected. */
+	private static final int FAILURES_TO_EJECT = 3;
+	
+	/** Initial ejection time in milliseconds. */
+	private static final long MIN_EJECTION_TIME = 1000;
+	
+	/** Maximal ejection time in milliseconds. */
+	private static final long MAX_EJECTION_TIME = 60000;
+	
+	/** Time in milliseconds, for which a replica rejecting a request because of overload is skipped. */
+	private static final long BUSY_BACKOFF = 250;
+	
+	/** Number of recent latencies used to compute the hedging delay. */
+	private static final int LATENCY_WINDOW = 256;
+	
+	/** Minimal number of latency samples to start hedging. */
+	private static final int MIN_LATENCY_SAMPLES = 20;
+	
+	/** Maximal number of hedges that can be accumulated by the budget. */
+	private static final double MAX_HEDGE_TOKENS = 10;
+	
+	/** Threads to send concurrent requests when hedging; shared among all routers. */
+	private static final ExecutorService hedgePool = Executors.newCachedThreadPool(new ThreadFactory() {
+		
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "hedge");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	/**
+	 * Implementation of a sequence together with its statistics.
+	 */
+	public static class Replica {
+		
+		/** Name of the implementation. */
+		public final Name name;
+		
+		private final IntegerSequenceOperations service;
+		
+		/** EWMA of latency in nanoseconds; 0 if there were no requests yet. */
+		private volatile double latency = 0;
+		
+		private final AtomicInteger outstanding = new AtomicInteger();
+		
+		private final AtomicLong requests = new AtomicLong();
+		
+		private final AtomicLong failures = new AtomicLong();
+		
+		/** Number of requests rejected because of overload. */
+		private final AtomicLong rejections = new AtomicLong();
+		
+		/** Maximal index supported by the replica, or -1 if it is not retrieved yet. */
+		private volatile int maxIndex = -1;
+		
+		/** Number of consecutive failures. */
+		private int consecutiveFailures = 0;
+		
+		/** Number of consecutive ejections. */
+		private int ejections = 0;
+		
+		/** Time until which the replica is ejected, as returned by <code>System.currentTimeMillis()</code>. */
+		private volatile long ejectedUntil = 0;
+		
+		public Replica(Name name, IntegerSequenceOperations service) {
+			this.name = name;
+			this.service = service;
+		}
+		
+		/** Returns the service wrapped by this replica. */
+		public IntegerSequenceOperations service() {
+			return this.service;
+		}
+		
+		/**
+		 * Returns the maximal index supported by the replica. The index is retrieved 
+		 * from the service on the first call.
+		 * 
+		 * @return
+		 *    maximal index, or -1 if it cannot be retrieved at the moment
+		 */
+		private int maxIndex() {
+			int maxIndex = this.maxIndex;
+			if (maxIndex < 0) {
+				try {
+					maxIndex = this.service.maxIndex();
+				} catch (SystemException e) {
+					// Requests will find out whether the replica is available
+					return -1;
+				}
+				this.maxIndex = maxIndex;
+			}
+			return maxIndex;
+		}
+		
+		/** Checks whether the replica may support the specified index. */
+		private boolean supports(int index) {
+			if (index < 0) return true;
+			int maxIndex = this.maxIndex();
+			return (maxIndex < 0) || (index <= maxIndex);
+		}
+		
+		/** Expected latency of a new request. */
+		private double load() {
+			return this.latency * (this.outstanding.get() + 1);
+		}
+		
+		private boolean isEjected(long now) {
+			return now < this.ejectedUntil;
+		}
+		
+		/**
+		 * Records a completed request.
+		 * 
+		 * @param nanos
+		 *    latency of the request, or -1 if the latency must not affect the EWMA
+		 *    (e.g., because the service has responded with an error)
+		 */
+		private synchronized void succeeded(long nanos) {
+			if (nanos >= 0) {
+				double latency = this.latency;
+				this.latency = (latency == 0) ? nanos : latency + EWMA_ALPHA * (nanos - latency);
+			}
+			this.consecutiveFailures = 0;
+			this.ejections = 0;
+		}
+		
+		/**
+		 * Records a rejection of a request because of overload. The replica is skipped
+		 * for a short time, but it is not ejected.
+		 */
+		private synchronized void rejected() {
+			this.rejections.incrementAndGet();
+			this.ejectedUntil = Math.max(this.ejectedUntil, System.currentTimeMillis() + BUSY_BACKOFF);
+		}
+		
+		/**
+		 * Records a failure.
+		 * 
+		 * @return
+		 *    <code>true</code> if the replica was ejected because of the failure
+		 */
+		private synchronized boolean failed(SystemException e) {
+			this.failures.incrementAndGet();
+			this.consecutiveFailures++;
+			if (!ServiceDirectory.isStale(e) && (this.consecutiveFailures < FAILURES_TO_EJECT)) {
+				return false;
+			}
+			
+			long time = Math.min(MIN_EJECTION_TIME << Math.min(this.ejections, 16), MAX_EJECTION_TIME);
+			this.ejections++;
+			this.consecutiveFailures = 0;
+			this.ejectedUntil = System.currentTimeMillis() + time;
+			return true;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%s: %d request(s), %d failure(s), %d rejection(s), latency EWMA %.3f ms%s", 
+					this.name, this.requests.get(), this.failures.get(), this.rejections.get(), this.latency / 1e6, 
+					this.isEjected(System.currentTimeMillis()) ? ", ejected" : "");
+		}
+	}
+	
+	/**
+	 * Operation performed on a replica.
+	 */
+	private static abstract class Call<R> {
+		
+		/** Maximal index requested by the operation, or -1 if it does not request members. */
+		final int maxIndex;
+		
+		Call(int maxIndex) {
+			this.maxIndex = maxIndex;
+		}
+		
+		abstract R invoke(IntegerSequenceOperations service);
+		
+		/** Checks whether the result contains errors. */
+		boolean hasErrors(R result) {
+			return false;
+		}
+		
+		/** Checks whether the result contains errors that may not occur on another replica. */
+		boolean isRetryable(R result) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Operation returning members of the sequence.
+	 */
+	private static abstract class MemberCall extends Call<Response[]> {
+		
+		MemberCall(int... indices) {
+			super(max(indices));
+		}
+		
+		private static int max(int[] indices) {
+			int max = -1;
+			for (int index : indices) max = Math.max(max, index);
+			return max;
+		}
+		
+		@Override
+		boolean hasErrors(Response[] result) {
+			for (Response response : result) {
+				if (response.discriminator().equals(ResponseType.t_error)) return true;
+			}
+			return false;
+		}
+		
+		@Override
+		boolean isRetryable(Response[] result) {
+			for (Response response : result) {
+				if (response.discriminator().equals(ResponseType.t_error) 
+						&& response.message().equals(demo.BUSY_MESSAGE.value)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+	
+	private final List<Replica> replicas;
+	
+	/** Percentile of recent latencies after which requests are hedged, or 0 if hedging is off. */
+	private volatile double hedgePercentile = 0;
+	
+	/** Maximal share of hedged requests. */
+	private volatile double hedgeBudget = 0;
+	
+	/** Accumulated budget for hedges; one hedge consumes one token. */
+	private double hedgeTokens = 0;
+	
+	/** Recent latencies of requests in nanoseconds; a ring buffer. */
+	private final long[] latencies = new long[LATENCY_WINDOW];
+	
+	private int latencyCount = 0;
+	
+	private final AtomicLong hedges = new AtomicLong();
+	
+	/** Number of hedges that completed before the original requests. */
+	private final AtomicLong hedgeWins = new AtomicLong();
+	
+	/**
+	 * Creates a router.
+	 * 
+	 * @param replicas
+	 *    implementations of the same sequence
+	 */
+	public ServiceRouter(List<Replica> replicas) {
+		if (replicas.isEmpty()) {
+			throw new IllegalArgumentException("No replicas specified");
+		}
+		this.replicas = Collections.unmodifiableList(new ArrayList<Replica>(replicas));
+	}
+	
+	/**
+	 * Enables hedging of requests.
+	 * 
+	 * @param percentile
+	 *    percentile of recent latencies, after which a request is hedged, e.g. 95;
+	 *    0 disables hedging
+	 * @param budget
+	 *    maximal share of hedged requests, e.g. 0.05
+	 */
+	public void setHedging(double percentile, double budget) {
+		this.hedgePercentile = percentile;
+		this.hedgeBudget = budget;
+	}
+	
+	/** Returns replicas served by this router. */
+	public List<Replica> replicas() {
+		return this.replicas;
+	}
+	
+	/**
+	 * Chooses a replica for the next request.
+	 * 
+	 * @param exclude
+	 *    replicas that have already failed processing the request
+	 * @param maxIndex
+	 *    maximal index requested by the request, or -1 if the request does not request members
+	 * @return
+	 *    chosen replica, or <code>null</code> if all replicas are excluded, ejected,
+	 *    or do not support the requested indices
+	 */
+	public Replica choose(List<Replica> exclude, int maxIndex) {
+		long now = System.currentTimeMillis();
+		List<Replica> candidates = new ArrayList<Replica>();
+		for (Replica replica : this.replicas) {
+			if (!exclude.contains(replica) && !replica.isEjected(now) && replica.supports(maxIndex)) {
+				candidates.add(replica);
+			}
+		}
+		
+		switch (candidates.size()) {
+			case 0:
+				return null;
+			case 1:
+				return candidates.get(0);
+			default:
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				int i = random.nextInt(candidates.size());
+				int j = random.nextInt(candidates.size() - 1);
+				if (j >= i) j++;
+				Replica a = candidates.get(i), b = candidates.get(j);
+				return (a.load() <= b.load()) ? a : b;
+		}
+	}
+	
+	/**
+	 * Performs a call on a replica, retrying it on other replicas in case of failures.
+	 * 
+	 * @param call
+	 *    call to perform
+	 * @param first
+	 *    replica to try first, or <code>null</code> to choose it
+	 * @param failed
+	 *    replicas that must not be tried
+	 */
+	private <R> R route(Call<R> call, Replica first, List<Replica> failed) {
+		SystemException lastError = null;
+		R lastResult = null;
+		while (true) {
+			Replica replica = (first != null) ? first : this.choose(failed, call.maxIndex);
+			first = null;
+			if ((replica == null) && (lastResult == null) && (lastError == null)) {
+				// No replica supports the requested indices; let any of them respond with an error
+				replica = this.choose(failed, -1);
+			}
+			if (replica == null) {
+				if (lastResult != null) return lastResult;
+				if (lastError != null) throw lastError;
+				throw new TRANSIENT("All services are temporarily excluded after failures");
+			}
+			
+			replica.requests.incrementAndGet();
+			replica.outstanding.incrementAndGet();
+			long start = System.nanoTime();
+			try {
+				R result = call.invoke(replica.service);
+				boolean errors = call.hasErrors(result);
+				replica.succeeded(errors ? -1 : System.nanoTime() - start);
+				if (errors && call.isRetryable(result)) {
+					replica.rejected();
+					failed.add(replica);
+					lastResult = result;
+					continue;
+				}
+				return result;
+			} catch (SystemException e) {
+				if (ServiceDirectory.isBusy(e)) {
+					replica.rejected();
+				} else if (replica.failed(e)) {
+					System.err.format("Service %s ejected after failure: %s\n", replica.name, e);
+				}
+				failed.add(replica);
+				lastError = e;
+			} finally {
+				replica.outstanding.decrementAndGet();
+			}
+		}
+	}
+	
+	/**
+	 * Performs a call, hedging it if hedging is enabled.
+	 */
+	private <R> R call(Call<R> call) {
+		long start = System.nanoTime();
+		long delay = this.hedgeDelay();
+		R result = (delay < 0) 
+				? this.route(call, null, new ArrayList<Replica>())
+				: this.hedge(call, delay);
+		this.recordLatency(System.nanoTime() - start);
+		return result;
+	}
+	
+	/**
+	 * Performs a call; if it does not complete in the specified time, sends a duplicate
+	 * call to another replica, provided that the hedging budget allows it.
+	 */
+	private <R> R hedge(final Call<R> call, long delay) {
+		final Replica first = this.choose(Collections.<Replica>emptyList(), call.maxIndex);
+		if (first == null) return this.route(call, null, new ArrayList<Replica>());
+		
+		CompletionService<R> completion = new ExecutorCompletionService<R>(hedgePool);
+		Future<R> original = completion.submit(new Callable<R>() {
+			
+			public R call() {
+				return route(call, first, new ArrayList<Replica>());
+			}
+		});
+		
+		try {
+			Future<R> done = completion.poll(delay, TimeUnit.NANOSECONDS);
+			if ((done != null) || !this.takeHedgeToken()) {
+				return original.get();
+			}
+			
+			this.hedges.incrementAndGet();
+			final List<Replica> exclude = new ArrayList<Replica>();
+			exclude.add(first);
+			completion.submit(new Callable<R>() {
+				
+				public R call() {
+					return route(call, null, exclude);
+				}
+			});
+			
+			// Use the first successful response; the other call is left to complete on its own
+			done = completion.take();
+			try {
+				R result = done.get();
+				if (done != original) this.hedgeWins.incrementAndGet();
+				return result;
+			} catch (ExecutionException e) {
+				done = completion.take();
+				R result = done.get();
+				if (done != original) this.hedgeWins.incrementAndGet();
+				return result;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TRANSIENT("Interrupted waiting for response");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SystemException) throw (SystemException) e.getCause();
+			throw new UNKNOWN(String.valueOf(e.getCause()));
+		}
+	}
+	
+	/**
+	 * Returns the delay after which requests are hedged, or -1 if requests should not be hedged.
+	 */
+	private synchronized long hedgeDelay() {
+		if ((this.hedgePercentile <= 0) || (this.replicas.size() < 2) 
+				|| (this.latencyCount < MIN_LATENCY_SAMPLES)) {
+			return -1;
+		}
+		
+		this.hedgeTokens = Math.min(this.hedgeTokens + this.hedgeBudget, MAX_HEDGE_TOKENS);
+		int count = Math.min(this.latencyCount, LATENCY_WINDOW);
+		long[] sorted = Arrays.copyOf(this.latencies, count);
+		Arrays.sort(sorted);
+		int rank = (int) Math.ceil(this.hedgePercentile / 100 * count) - 1;
+		return sorted[Math.max(0, Math.min(rank, count - 1))];
+	}
+	
+	private synchronized boolean takeHedgeToken() {
+		if (this.hedgeTokens < 1) return false;
+		this.hedgeTokens -= 1;
+		return true;
+	}
+	
+	private synchronized void recordLatency(long nanos) {
+		this.latencies[this.latencyCount % LATENCY_WINDOW] = nanos;
+		this.latencyCount++;
+	}
+	
+	@Override
+	public String name() {
+		return this.call(new Call<String>(-1) {
+			
+			public String invoke(IntegerSequenceOperations service) {
+				return service.name();
+			}
+		});
+	}
+
+	@Override
+	public String description() {
+		return this.call(new Call<String>(-1) {
+			
+			public String invoke(IntegerSequenceOperations service) {
+				return service.description();
+			}
+		});
+	}
+
+	/**
+	 * Returns the maximal index supported by any of the replicas, since requests
+	 * are routed to the replicas supporting the requested indices.
+	 */
+	@Override
+	public int maxIndex() {
+		int maxIndex = -1;
+		for (Replica replica : this.replicas) {
+			maxIndex = Math.max(maxIndex, replica.maxIndex());
+		}
+		if (maxIndex >= 0) return maxIndex;
+		
+		// None of the replicas has responded; report the failure
+		return this.call(new Call<Integer>(-1) {
+			
+			public Integer invoke(IntegerSequenceOperations service) {
+				return service.maxIndex();
+			}
+		});
+	}
+
+	@Override
+	public Response number(final int index) {
+		return this.call(new MemberCall(index) {
+			
+			public Response[] invoke(IntegerSequenceOperations service) {
+				return new Response[] { service.number(index) };
+			}
+		})[0];
+	}
+
+	@Override
+	public Response[] numbers(final int[] indices) {
+		return this.call(new MemberCall(indices) {
+			
+			public Response[] invoke(IntegerSequenceOperations service) {
+				return service.numbers(indices);
+			}
+		});
+	}
+	
+	/**
+	 * Prints statistics for each replica.
+	 */
+	public void printStats() {
+		if (this.hedgePercentile > 0) {
+			System.out.format("Hedged requests: %d (won: %d)\n", this.hedges.get(), this.hedgeWins.get());
+		}
+		System.out.println("Services:");
+		for (Replica replica : this.replicas) {
+			System.out.println("    " + replica);
+		}
+	}
+}
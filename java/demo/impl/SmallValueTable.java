@@ -0,0 +1,107 @@
+package demo.impl;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import demo.NumberFormat;
+import demo.Response;
+
+/**
+ * Precomputed responses for the prefix of a sequence, which consists of members fitting
+ * into a 64-bit integer. A response is prepared for each number format, so serving 
+ * these members involves neither big integer arithmetic nor conversion into strings;
+ * in the {@link NumberFormat#f_compact compact format}, the responses use the <code>t_int</code> 
+ * or <code>t_longlong</code> arm of the response union. Responses are shared among requests 
+ * and must not be modified.
+ */
+final class SmallValueTable {
+
+	/** Maximal number of members in the table. */
+	public static final int MAX_SIZE = 1024;
+	
+	/** Formats of the precomputed responses. */
+	private static final NumberFormat[] FORMATS = { 
+		NumberFormat.f_decimal, NumberFormat.f_binary, NumberFormat.f_compact 
+	};
+
+	/** 
+	 * Responses by format and index; <code>null</code> for members that could not be computed. 
+	 * The first index is the value of the format.
+	 */
+	private final Response[][] responses;
+	
+	private SmallValueTable(Response[][] responses) {
+		this.responses = responses;
+	}
+	
+	/**
+	 * Computes the table for a sequence. The table contains members with indices 0, 1, ...
+	 * up to the first member that does not fit into a 64-bit integer. Computations
+	 * are not limited by the deadline of the current request.
+	 * 
+	 * @param sequence
+	 *    sequence implementation
+	 * @return
+	 */
+	public static SmallValueTable build(final IntegerSequenceImpl sequence) {
+		Callable<SmallValueTable> task = Deadline.NONE.bind(new Callable<SmallValueTable>() {
+			
+			public SmallValueTable call() {
+				int limit = Math.min(MAX_SIZE, sequence.maxIndex() + 1);
+				List<SequenceMember> members = new ArrayList<SequenceMember>();
+				for (int index = 0; index < limit; index++) {
+					BigInteger value;
+					try {
+						value = sequence.compute(index);
+					} catch (Exception e) {
+						members.add(null);
+						continue;
+					}
+					
+					if (value.bitLength() >= Long.SIZE) break;
+					members.add(SequenceMember.of(value));
+				}
+				
+				Response[][] responses = new Response[FORMATS.length][members.size()];
+				for (NumberFormat format : FORMATS) {
+					for (int index = 0; index < members.size(); index++) {
+						SequenceMember member = members.get(index);
+						if (member != null) {
+							responses[format.value()][index] = member.toResponse(format);
+						}
+					}
+				}
+				return new SmallValueTable(responses);
+			}
+		});
+		
+		try {
+			return task.call();
+		} catch (Exception e) {
+			// Cannot happen: the task does not throw checked exceptions
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Returns the precomputed response for a member.
+	 * 
+	 * @param index
+	 *    index of the member
+	 * @param format
+	 *    format of the number in the response
+	 * @return
+	 *    response, or <code>null</code> if the member is not in the table
+	 */
+	public Response get(int index, NumberFormat format) {
+		Response[] responses = this.responses[format.value()];
+		return ((index >= 0) && (index < responses.length)) ? responses[index] : null;
+	}
+	
+	/** Returns the number of indices covered by the table. */
+	public int size() {
+		return this.responses[0].length;
+	}
+}
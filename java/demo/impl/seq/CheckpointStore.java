@@ -0,0 +1,254 @@
+package demo.impl.seq;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Persistent store of pairs of consecutive Fibonacci numbers [fib(k), fib(k+1)],
+ * which allows computations to resume from saved checkpoints after a restart of the server.
+ * Checkpoints are saved at indices that are multiples of a fixed interval, and at powers of two.
+ * 
+ * The store is a memory-mapped file with the following format (all integers are big-endian):
+ * <pre>
+ *   header:  magic "FIBC" (4 bytes), version (int), interval (int), number of records (int)
+ *   record:  k (int), length of fib(k) (int), fib(k) (two's complement bytes),
+ *            length of fib(k+1) (int), fib(k+1) (two's complement bytes)
+ * </pre>
+ * Records are appended in arbitrary order; the number of records in the header is updated 
+ * only after a record is written completely, so a partially written record is ignored on load.
+ * Saved pairs stay valid when the store is reopened with a different interval, so they are kept;
+ * the header then records the new interval, which applies to pairs saved afterwards.
+ */
+public class CheckpointStore implements Closeable {
+
+	/** Magic bytes "FIBC" at the start of the file. */
+	private static final int MAGIC = 0x46494243;
+	
+	/** Version of the file format. */
+	public static final int VERSION = 1;
+	
+	private static final int HEADER_SIZE = 16;
+	
+	/** Offset of the checkpoint interval within the header. */
+	private static final int INTERVAL_OFFSET = 8;
+	
+	/** Offset of the record count within the header. */
+	private static final int COUNT_OFFSET = 12;
+	
+	/** Minimal size of the mapped region in bytes. */
+	private static final int MIN_MAPPED_SIZE = 1 << 16;
+	
+	private final File file;
+	
+	private final RandomAccessFile raf;
+	
+	private final FileChannel channel;
+	
+	/** Mapped region of the file; guarded by this. */
+	private MappedByteBuffer buffer;
+	
+	/** Offset of the end of the last record; guarded by this. */
+	private int end;
+	
+	/** Distance between checkpoints. */
+	private final int interval;
+	
+	/** Saved pairs indexed by k. */
+	private final ConcurrentSkipListMap<Integer, BigInteger[]> pairs = 
+			new ConcurrentSkipListMap<Integer, BigInteger[]>();
+	
+	/**
+	 * Opens the store, creating the file if it does not exist. 
+	 * 
+	 * @param file
+	 *    file of the store
+	 * @param interval
+	 *    positive distance between indices of saved checkpoints
+	 * @return
+	 * @throws IOException
+	 *    if the file cannot be opened, or its format is not supported
+	 */
+	public static CheckpointStore open(File file, int interval) throws IOException {
+		return new CheckpointStore(file, interval);
+	}
+	
+	private CheckpointStore(File file, int interval) throws IOException {
+		this.file = file;
+		this.interval = interval;
+		this.raf = new RandomAccessFile(file, "rw");
+		this.channel = this.raf.getChannel();
+		
+		try {
+			boolean exists = (this.channel.size() > 0);
+			this.map(Math.max(this.channel.size(), MIN_MAPPED_SIZE));
+			if (exists) {
+				this.load();
+				int savedInterval = this.buffer.getInt(INTERVAL_OFFSET);
+				if (savedInterval != interval) {
+					System.out.format("Checkpoint file %s was saved with interval %d; " +
+							"keeping %d saved checkpoint(s) and saving new ones with interval %d\n", 
+							file, savedInterval, this.pairs.size(), interval);
+					this.buffer.putInt(INTERVAL_OFFSET, interval);
+				}
+			} else {
+				this.buffer.putInt(0, MAGIC);
+				this.buffer.putInt(4, VERSION);
+				this.buffer.putInt(INTERVAL_OFFSET, interval);
+				this.buffer.putInt(COUNT_OFFSET, 0);
+				this.end = HEADER_SIZE;
+			}
+		} catch (IOException | RuntimeException e) {
+			this.raf.close();
+			throw e;
+		}
+	}
+	
+	private void map(long size) throws IOException {
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Checkpoint file is too large");
+		}
+		this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+	}
+	
+	/**
+	 * Loads records from the file.
+	 */
+	private void load() throws IOException {
+		MappedByteBuffer buf = this.buffer;
+		if ((buf.capacity() < HEADER_SIZE) || (buf.getInt(0) != MAGIC)) {
+			throw new IOException("Not a checkpoint file: " + this.file);
+		}
+		int version = buf.getInt(4);
+		if (version != VERSION) {
+			throw new IOException(String.format("Unsupported version of checkpoint file %s: %d", 
+					this.file, version));
+		}
+		
+		int count = buf.getInt(COUNT_OFFSET);
+		buf.position(HEADER_SIZE);
+		try {
+			for (int i = 0; i < count; i++) {
+				int k = buf.getInt();
+				BigInteger a = readNumber(buf), b = readNumber(buf);
+				this.pairs.put(k, new BigInteger[] { a, b });
+			}
+		} catch (RuntimeException e) {
+			throw new IOException("Checkpoint file is corrupted: " + this.file, e);
+		}
+		this.end = buf.position();
+	}
+	
+	private static BigInteger readNumber(MappedByteBuffer buf) {
+		byte[] bytes = new byte[buf.getInt()];
+		buf.get(bytes);
+		return new BigInteger(bytes);
+	}
+	
+	/** Returns the distance between checkpoints. */
+	public int interval() {
+		return this.interval;
+	}
+	
+	/**
+	 * Checks whether a pair with the specified index should be saved.
+	 * 
+	 * @param k
+	 *    index of the first number in the pair
+	 * @return
+	 */
+	public boolean isCheckpoint(int k) {
+		return (k > 0) && ((k % this.interval == 0) || (Integer.bitCount(k) == 1));
+	}
+	
+	/**
+	 * Returns the largest index of a checkpoint not exceeding the specified index, 
+	 * regardless whether the checkpoint is saved.
+	 * 
+	 * @param index
+	 *    positive index
+	 * @return
+	 */
+	public int checkpointBefore(int index) {
+		return Math.max(index / this.interval * this.interval, Integer.highestOneBit(index));
+	}
+	
+	/**
+	 * Returns the saved pair with the largest index not exceeding the specified one.
+	 * 
+	 * @param index
+	 *    non-negative index
+	 * @return
+	 *    entry mapping k to the pair [fib(k), fib(k+1)], or <code>null</code>
+	 */
+	public Map.Entry<Integer, BigInteger[]> floor(int index) {
+		return this.pairs.floorEntry(index);
+	}
+	
+	/** Returns all saved pairs indexed by k. */
+	public Map<Integer, BigInteger[]> pairs() {
+		return this.pairs;
+	}
+	
+	/**
+	 * Saves a pair of consecutive Fibonacci numbers, unless it is already saved.
+	 * If the pair cannot be written to the file, it is kept in memory only.
+	 * 
+	 * @param k
+	 *    index of the first number in the pair
+	 * @param a
+	 *    fib(k)
+	 * @param b
+	 *    fib(k+1)
+	 */
+	public synchronized void put(int k, BigInteger a, BigInteger b) {
+		if (this.pairs.containsKey(k)) return;
+		this.pairs.put(k, new BigInteger[] { a, b });
+		
+		byte[] aBytes = a.toByteArray(), bBytes = b.toByteArray();
+		long recordEnd = (long) this.end + 12 + aBytes.length + bBytes.length;
+		try {
+			if (recordEnd > this.buffer.capacity()) {
+				this.map(Math.max(recordEnd, 2L * this.buffer.capacity()));
+			}
+		} catch (IOException e) {
+			System.out.format("Failed to save checkpoint #%d: %s\n", k, e.getMessage());
+			return;
+		}
+		
+		MappedByteBuffer buf = this.buffer;
+		buf.position(this.end);
+		buf.putInt(k);
+		buf.putInt(aBytes.length);
+		buf.put(aBytes);
+		buf.putInt(bBytes.length);
+		buf.put(bBytes);
+		this.end = buf.position();
+		buf.putInt(COUNT_OFFSET, buf.getInt(COUNT_OFFSET) + 1);
+	}
+	
+	/** Returns the number of saved pairs. */
+	public int count() {
+		return this.pairs.size();
+	}
+	
+	/** Returns the size of saved data in bytes. */
+	public synchronized long sizeBytes() {
+		return this.end;
+	}
+	
+	/**
+	 * Flushes saved pairs to the disk and closes the file.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		this.buffer.force();
+		this.raf.close();
+	}
+}
@@ -0,0 +1,221 @@
+package demo.impl.seq;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+import demo.impl.ComputeExecutor;
+import demo.impl.Deadline;
+import demo.impl.IntegerSequenceImpl;
+import demo.impl.MemberIterator;
+import demo.impl.Name;
+import demo.impl.SequenceMember;
+
+/**
+ * Factorials implemented with binary splitting.
+ */
+public class FactorialImpl extends IntegerSequenceImpl {
+
+	public static final String NAME = "Factorials (Java)";
+	public static final String DESCRIPTION = 
+			"Factorials\n" +
+			"    n! = 1 * 2 * ... * n;  0! = 1.\n" +
+			"This implementation in Java uses binary splitting: n! is a power of two multiplied\n" +
+			"by products of odd numbers, which are computed with balanced product trees in parallel.\n" +
+			"\n" +
+			"See http://oeis.org/A000142";
+	public static final int MAX_INDEX = 1000000;
+
+	/** Minimal number of factors in a product, for which halves are computed in parallel. */
+	private static final int PARALLEL_THRESHOLD = 4096;
+
+	/** Maximal number of factors in a product computed without splitting. */
+	private static final int LEAF_SIZE = 32;
+
+	public FactorialImpl() {
+		super(NAME, DESCRIPTION, MAX_INDEX);
+	}
+
+	/**
+	 * Product of numbers low * (low + stride) * ... * high, e.g. of odd numbers for stride 2. 
+	 * The range is split in halves with the same number of factors, so that multiplied numbers 
+	 * have similar sizes and fast multiplication algorithms of {@link BigInteger} are effective.
+	 * Once the deadline is exceeded, the task returns a meaningless result immediately;
+	 * the caller is responsible for checking the deadline.
+	 */
+	private static class Product extends RecursiveTask<BigInteger> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int low, high, stride;
+		
+		private final Deadline deadline;
+
+		/**
+		 * @param low
+		 *    lower bound
+		 * @param high
+		 *    upper bound, which differs from the lower bound by a multiple of the stride
+		 * @param stride
+		 *    positive difference between consecutive factors
+		 * @param deadline
+		 *    deadline of the computation
+		 */
+		public Product(int low, int high, int stride, Deadline deadline) {
+			this.low = low;
+			this.high = high;
+			this.stride = stride;
+			this.deadline = deadline;
+		}
+
+		@Override
+		protected BigInteger compute() {
+			if ((this.high < this.low) || this.deadline.isExceeded()) return BigInteger.ONE;
+			
+			int count = (this.high - this.low) / this.stride + 1;
+			if (count <= LEAF_SIZE) {
+				return leafProduct(this.low, this.high, this.stride);
+			}
+
+			int mid = this.low + (count / 2 - 1) * this.stride;
+			Product left = new Product(this.low, mid, this.stride, this.deadline),
+					right = new Product(mid + this.stride, this.high, this.stride, this.deadline);
+			if (count < PARALLEL_THRESHOLD) {
+				return left.compute().multiply(right.compute());
+			}
+			
+			left.fork();
+			BigInteger rightProduct = right.compute();
+			return left.join().multiply(rightProduct);
+		}
+	}
+
+	/**
+	 * Returns n, if n is odd; else returns n - 1.
+	 */
+	private static int nearestOdd(int n) {
+		return n - (n + 1) % 2;
+	}
+
+	/**
+	 * Multiplies numbers low, low + stride, ..., high in a short range, accumulating factors 
+	 * in a <code>long</code> while it does not overflow.
+	 */
+	private static BigInteger leafProduct(int low, int high, int stride) {
+		BigInteger product = BigInteger.ONE;
+		long acc = 1;
+		for (long i = low; i <= high; i += stride) {
+			if (acc > Long.MAX_VALUE / i) {
+				product = product.multiply(BigInteger.valueOf(acc));
+				acc = 1;
+			}
+			acc *= i;
+		}
+		return product.multiply(BigInteger.valueOf(acc));
+	}
+
+	/**
+	 * Calculates a factorial. Uses the identity 
+	 *     n! = 2^(n/2 + n/4 + ...) * P(n) * P(n/2) * P(n/4) * ...,
+	 * where P(m) is the product of odd numbers not exceeding m; each P(m) is, in turn,
+	 * the product of P(m/2) and odd numbers in the range (m/2, m].
+	 *
+	 * @param n
+	 *    non-negative number
+	 * @return
+	 *    n!
+	 * @throws java.util.concurrent.CancellationException
+	 *    if the deadline of the current request is exceeded
+	 */
+	static BigInteger factorial(int n) {
+		if (n < 2) return BigInteger.ONE;
+		Deadline deadline = Deadline.current();
+
+		List<Integer> bounds = new ArrayList<Integer>();
+		for (int m = n; m > 0; m >>= 1) bounds.add(0, m);
+
+		// Products of odd numbers in (bounds[i-1], bounds[i]] are independent; compute them in parallel
+		List<Product> tasks = new ArrayList<Product>();
+		int shift = 0;
+		for (int i = 1; i < bounds.size(); i++) {
+			Product task = new Product(nearestOdd(bounds.get(i - 1)) + 2, nearestOdd(bounds.get(i)),
+					2, deadline);
+			tasks.add(task);
+			ComputeExecutor.parallelPool().execute(task);
+			shift += bounds.get(i - 1);
+		}
+
+		BigInteger product = BigInteger.ONE, oddProduct = BigInteger.ONE;
+		for (Product task : tasks) {
+			BigInteger taskProduct = task.join();
+			deadline.check();
+			oddProduct = oddProduct.multiply(taskProduct);
+			product = product.multiply(oddProduct);
+		}
+		return product.shiftLeft(shift);
+	}
+
+	@Override
+	protected BigInteger compute(int index) {
+		return factorial(index);
+	}
+
+	/**
+	 * Iterates over factorials by multiplying the previous member by the product
+	 * of the skipped indices, (i + 1) * (i + 2) * ... * (i + step), which is computed
+	 * with a balanced product tree.
+	 */
+	@Override
+	protected MemberIterator iterate(final int start, final int step) {
+		return new MemberIterator() {
+
+			private int index = start;
+			private BigInteger value = null;
+
+			public SequenceMember next() {
+				if (this.value == null) {
+					this.value = factorial(this.index);
+				} else {
+					Deadline deadline = Deadline.current();
+					BigInteger factor = ComputeExecutor.parallelPool().invoke(new Product(this.index - step + 1, this.index, 
+							1, deadline));
+					deadline.check();
+					this.value = this.value.multiply(factor);
+				}
+				
+				SequenceMember member = SequenceMember.of(this.value);
+				this.index += step;
+				return member;
+			}
+		};
+	}
+
+	/**
+	 * Cost model: product tree with n! having O(n log n) bits; the cost is dominated
+	 * by multiplications in the root of the tree.
+	 */
+	@Override
+	protected double cost(int index) {
+		return Math.pow(index * Math.log(index + 2), 1.5);
+	}
+
+	/**
+	 * Cost model for ranges: each member is the previous one multiplied by step small factors,
+	 * which costs at most as much as computing the member from scratch.
+	 */
+	@Override
+	protected double rangeCost(int start, int count, int step) {
+		double cost = 0;
+		for (int i = 0; i < count; i++) {
+			int index = start + i * step;
+			cost += Math.min(this.cost(index), (double) step * index * Math.log(index + 2));
+		}
+		return cost;
+	}
+
+	@Override
+	public Name corbaName() {
+		return new Name("fac", "java");
+	}
+}
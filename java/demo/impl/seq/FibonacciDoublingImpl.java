@@ -0,0 +1,124 @@
+package demo.impl.seq;
+
+import java.math.BigInteger;
+
+import demo.impl.Deadline;
+import demo.impl.IntegerSequenceImpl;
+import demo.impl.MemberIterator;
+import demo.impl.Name;
+
+/**
+ * Fibonacci numbers implemented with the fast doubling method.
+ */
+public class FibonacciDoublingImpl extends IntegerSequenceImpl {
+
+	public static final String NAME = "Fibonacci numbers, fast doubling (Java)";
+	public static final String DESCRIPTION =
+			"Fibonacci numbers, defined by equalities\n" +
+			"    fib(i) = fib(i-1) + fib(i-2), fib(0) = 0, fib(1) = 1.\n" +
+			"This implementation in Java uses fast doubling identities\n" +
+			"    fib(2k-1) = fib(k)^2 + fib(k-1)^2,\n" +
+			"    fib(2k+1) = 4 fib(k)^2 - fib(k-1)^2 + 2 (-1)^k,\n" +
+			"which require two squarings of big integers per bit of the index.\n" +
+			"\n" +
+			"See http://en.wikipedia.org/wiki/Fibonacci_number, http://oeis.org/A000045";
+	public static final int MAX_INDEX = 5000000;
+
+	private static final BigInteger TWO = BigInteger.valueOf(2);
+
+	public FibonacciDoublingImpl() {
+		super(NAME, DESCRIPTION, MAX_INDEX);
+	}
+
+	/**
+	 * Calculates a Fibonacci number using fast doubling.
+	 *
+	 * @param index
+	 *    non-negative index of the number
+	 * @return
+	 *    fib(index)
+	 */
+	static BigInteger fib(int index) {
+		if (index == 0) return BigInteger.ZERO;
+		return doubling(index)[1];
+	}
+
+	/**
+	 * Calculates a pair of consecutive Fibonacci numbers using fast doubling.
+	 *
+	 * @param index
+	 *    non-negative index of the first number
+	 * @return
+	 *    array [fib(index), fib(index + 1)]
+	 */
+	static BigInteger[] pair(int index) {
+		BigInteger[] pair = doubling(index + 1);
+		return new BigInteger[] { pair[0], pair[1] };
+	}
+
+	/**
+	 * Calculates fib(index - 1) and fib(index) for a positive index.
+	 */
+	private static BigInteger[] doubling(int index) {
+		// Invariant: prev = fib(k-1), cur = fib(k); we start with k = 1
+		BigInteger prev = BigInteger.ZERO, cur = BigInteger.ONE;
+		boolean kOdd = true;
+		Deadline deadline = Deadline.current();
+
+		for (int bit = Integer.highestOneBit(index) >> 1; bit > 0; bit >>= 1) {
+			deadline.check();
+			BigInteger curSq = cur.multiply(cur);
+			BigInteger prevSq = prev.multiply(prev);
+
+			// fib(2k-1), fib(2k+1) and fib(2k) = fib(2k+1) - fib(2k-1)
+			BigInteger f2kMinus1 = curSq.add(prevSq);
+			BigInteger f2kPlus1 = curSq.shiftLeft(2).subtract(prevSq);
+			f2kPlus1 = kOdd ? f2kPlus1.subtract(TWO) : f2kPlus1.add(TWO);
+			BigInteger f2k = f2kPlus1.subtract(f2kMinus1);
+
+			if ((index & bit) != 0) {
+				prev = f2k;
+				cur = f2kPlus1;
+				kOdd = true;
+			} else {
+				prev = f2kMinus1;
+				cur = f2k;
+				kOdd = false;
+			}
+		}
+
+		return new BigInteger[] { prev, cur };
+	}
+
+	@Override
+	protected BigInteger compute(int index) {
+		return fib(index);
+	}
+
+	@Override
+	protected MemberIterator iterate(int start, int step) {
+		return new FibonacciRangeIterator(pair(start), step);
+	}
+
+	/**
+	 * Cost model: logarithmic number of multiplications, dominated by the last ones;
+	 * multiplication of big integers is subquadratic.
+	 */
+	@Override
+	protected double cost(int index) {
+		return Math.pow(index, 1.5);
+	}
+
+	/**
+	 * Cost model for ranges: members are computed incrementally, see {@link FibonacciRangeIterator}.
+	 */
+	@Override
+	protected double rangeCost(int start, int count, int step) {
+		return FibonacciRangeIterator.rangeCost(start, count, step);
+	}
+
+	@Override
+	public Name corbaName() {
+		return new Name("fib", "doubling-java");
+	}
+}
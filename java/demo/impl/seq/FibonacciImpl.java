@@ -1,11 +1,10 @@
 package demo.impl.seq;
 
 import java.math.BigInteger;
-import java.util.HashMap;
 import java.util.Map;
 
-import demo.Response;
 import demo.impl.IntegerSequenceImpl;
+import demo.impl.MemberIterator;
 import demo.impl.Name;
 
 /**
@@ -22,96 +21,122 @@ public class FibonacciImpl extends IntegerSequenceImpl {
 			"See http://en.wikipedia.org/wiki/Fibonacci_number, http://oeis.org/A000045";
 	public static final int MAX_INDEX = 5000000;
 
-	private final Mat2 base = new Mat2(1, 1, 1, 0);
+	/** Default memory budget for cached powers of the matrix, in bytes. */
+	public static final long DEFAULT_CACHE_SIZE = 16 << 20;
 
-	public FibonacciImpl() {
-		super(NAME, DESCRIPTION, MAX_INDEX);
-	}
+	/** Powers of the matrix [1, 1, 1, 0], shared among all requests. */
+	private final MatrixPowerCache powers;
+	
+	/** Persistent checkpoints, or <code>null</code> if they are not used. */
+	private volatile CheckpointStore checkpoints = null;
 
-	@Override
-	protected Response compute(int index) {
-		String str = (index == 0) ? "0" : this.base.pow(index - 1).a00
-				.toString();
-		Response response = new Response();
-		response.stringVal(str);
-		return response;
+	public FibonacciImpl() {
+		this(DEFAULT_CACHE_SIZE);
 	}
 
-	@Override
-	public Name corbaName() {
-		return new Name("fib", "java");
+	/**
+	 * Creates an implementation with the specified memory budget for cached matrix powers.
+	 * 
+	 * @param cacheSize
+	 *    maximal total size of cached matrices in bytes
+	 */
+	public FibonacciImpl(long cacheSize) {
+		super(NAME, DESCRIPTION, MAX_INDEX);
+		this.powers = new MatrixPowerCache(new Mat2(1, 1, 1, 0), cacheSize);
 	}
-}
-
-class Mat2 {
-
-	public static final Mat2 IDENTITY = new Mat2(1, 0, 0, 1);
 
-	public final BigInteger a00;
-	public final BigInteger a01;
-	public final BigInteger a10;
-	public final BigInteger a11;
-
-	public Mat2(int a00, int a01, int a10, int a11) {
-		this.a00 = BigInteger.valueOf(a00);
-		this.a01 = BigInteger.valueOf(a01);
-		this.a10 = BigInteger.valueOf(a10);
-		this.a11 = BigInteger.valueOf(a11);
+	/**
+	 * Returns the cache of matrix powers used by this implementation.
+	 */
+	public MatrixPowerCache powerCache() {
+		return this.powers;
 	}
 
-	public Mat2(BigInteger a00, BigInteger a01, BigInteger a10, BigInteger a11) {
-		this.a00 = a00;
-		this.a01 = a01;
-		this.a10 = a10;
-		this.a11 = a11;
+	/**
+	 * Sets the persistent store of checkpoints. Computations start from the nearest 
+	 * saved checkpoint and save the checkpoint preceding the requested index; 
+	 * saved checkpoints at powers of two are added to the cache of matrix powers.
+	 * 
+	 * @param checkpoints
+	 *    checkpoint store, or <code>null</code> to compute without checkpoints
+	 */
+	public void setCheckpoints(CheckpointStore checkpoints) {
+		this.checkpoints = checkpoints;
+		if (checkpoints == null) return;
+		
+		for (Map.Entry<Integer, BigInteger[]> entry : checkpoints.pairs().entrySet()) {
+			if (Integer.bitCount(entry.getKey()) == 1) {
+				this.powers.preload(entry.getKey(), power(entry.getValue()));
+			}
+		}
 	}
-
-	public Mat2 multiply(Mat2 other) {
-		return new Mat2(this.a00.multiply(other.a00).add(
-				this.a01.multiply(other.a10)), this.a00.multiply(other.a01)
-				.add(this.a01.multiply(other.a11)), this.a10
-				.multiply(other.a00).add(this.a11.multiply(other.a10)),
-				this.a10.multiply(other.a01).add(this.a11.multiply(other.a11)));
+	
+	/**
+	 * Restores the power of the matrix [1, 1, 1, 0] from a checkpoint.
+	 * 
+	 * @param pair
+	 *    array [fib(k), fib(k+1)]
+	 * @return
+	 *    [1, 1, 1, 0]^k = [fib(k+1), fib(k), fib(k), fib(k-1)]
+	 */
+	private static Mat2 power(BigInteger[] pair) {
+		return new Mat2(pair[1], pair[0], pair[0], pair[1].subtract(pair[0]));
 	}
 
-	private Map<Integer, Mat2> powers2;
-
-	private Mat2 pow2matrix(int pow2) {
-		if (this.powers2 == null) {
-			this.powers2 = new HashMap<Integer, Mat2>();
-			this.powers2.put(1, this);
+	@Override
+	protected BigInteger compute(int index) {
+		if (index == 0) return BigInteger.ZERO;
+		
+		CheckpointStore checkpoints = this.checkpoints;
+		if (checkpoints == null) return this.powers.pow(index - 1).a00;
+		
+		int k = 0;
+		Mat2 matrix = Mat2.IDENTITY;
+		Map.Entry<Integer, BigInteger[]> saved = checkpoints.floor(index);
+		if (saved != null) {
+			k = saved.getKey();
+			matrix = power(saved.getValue());
 		}
-
-		int i = pow2;
-		while (!powers2.containsKey(i))
-			i >>= 1;
-
-		while (i < pow2) {
-			i <<= 1;
-			Mat2 matrix = this.powers2.get(i / 2);
-			this.powers2.put(i, matrix.multiply(matrix));
+		
+		int next = checkpoints.checkpointBefore(index);
+		if (next > k) {
+			matrix = matrix.multiply(this.powers.pow(next - k));
+			k = next;
+			checkpoints.put(k, matrix.a01, matrix.a00);
 		}
-
-		return this.powers2.get(pow2);
+		
+		if (k < index) {
+			matrix = matrix.multiply(this.powers.pow(index - k));
+		}
+		return matrix.a01;
 	}
 
-	public Mat2 pow(int exponent) {
-		Mat2 matrix = Mat2.IDENTITY;
-
-		int pow2 = 1;
-		while (exponent > 0) {
-			if (exponent % 2 == 1) {
-				matrix = matrix.multiply(this.pow2matrix(pow2));
-			}
+	@Override
+	protected MemberIterator iterate(int start, int step) {
+		// [1, 1, 1, 0]^n = [fib(n+1), fib(n), fib(n), fib(n-1)]
+		Mat2 power = (start == 0) ? Mat2.IDENTITY : this.powers.pow(start);
+		return new FibonacciRangeIterator(new BigInteger[] { power.a01, power.a00 }, step);
+	}
 
-			exponent >>= 1;
-			pow2 <<= 1;
-		}
+	/**
+	 * Cost model: logarithmic number of multiplications, dominated by the last ones;
+	 * multiplication of big integers is subquadratic.
+	 */
+	@Override
+	protected double cost(int index) {
+		return Math.pow(index, 1.5);
+	}
 
-		return matrix;
+	/**
+	 * Cost model for ranges: members are computed incrementally, see {@link FibonacciRangeIterator}.
+	 */
+	@Override
+	protected double rangeCost(int start, int count, int step) {
+		return FibonacciRangeIterator.rangeCost(start, count, step);
 	}
 
-	public String toString() {
-		return String.format("[%d, %d, %d, %d]", a00, a01, a10, a11);
+	@Override
+	public Name corbaName() {
+		return new Name("fib", "java");
 	}
 }
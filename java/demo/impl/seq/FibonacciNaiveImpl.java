@@ -1,13 +1,28 @@
 package demo.impl.seq;
 
 import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentSkipListMap;
 
-import demo.Response;
+import demo.impl.Deadline;
 import demo.impl.IntegerSequenceImpl;
+import demo.impl.MemberIterator;
 import demo.impl.Name;
+import demo.impl.SequenceMember;
 
 /**
  * Fibonacci numbers implemented using the definition.
+ * Batch requests are computed in a single pass over the sorted indices;
+ * optionally, pairs of consecutive numbers are saved as checkpoints in memory
+ * or in a persistent store, from which later requests can resume. In-memory checkpoints
+ * are limited by a memory budget; when the budget is exceeded, least recently used
+ * checkpoints are evicted.
  */
 public class FibonacciNaiveImpl extends IntegerSequenceImpl {
 
@@ -20,24 +35,225 @@ public class FibonacciNaiveImpl extends IntegerSequenceImpl {
 		"See http://en.wikipedia.org/wiki/Fibonacci_number, http://oeis.org/A000045";
 	public static final int MAX_INDEX = 5000000;
 	
+	/** Default memory budget for in-memory checkpoints in bytes. */
+	public static final long DEFAULT_CHECKPOINT_BUDGET = 64 << 20;
+
+	/** Approximate memory overhead of a checkpoint in bytes. */
+	private static final int CHECKPOINT_OVERHEAD = 128;
+
+	/** Number of additions between checks of the request deadline. */
+	private static final int DEADLINE_CHECK_INTERVAL = 1 << 12;
+
+	/**
+	 * Distance between saved checkpoints, or 0 if checkpoints are disabled.
+	 */
+	private final int checkpointInterval;
+
+	/** Persistent checkpoints, or <code>null</code> if they are not used. */
+	private volatile CheckpointStore store = null;
+
+	/** Maximal total size of in-memory checkpoints in bytes. */
+	private final long checkpointBudget;
+
+	/** Checkpoints: pairs [fib(k), fib(k+1)] indexed by k. */
+	private final ConcurrentSkipListMap<Integer, BigInteger[]> checkpoints =
+			new ConcurrentSkipListMap<Integer, BigInteger[]>();
+
+	/** 
+	 * Sizes of in-memory checkpoints in bytes in access order, except for the initial one,
+	 * which is never evicted.
+	 */
+	private final LinkedHashMap<Integer, Long> checkpointSizes = 
+			new LinkedHashMap<Integer, Long>(64, 0.75f, true);
+
+	/** Total size of in-memory checkpoints in bytes; guarded by this.checkpointSizes. */
+	private long checkpointBytes = 0;
+
 	public FibonacciNaiveImpl() {
+		this(0);
+	}
+
+	/**
+	 * Creates an implementation that saves checkpoints with the specified interval
+	 * within the default memory budget.
+	 *
+	 * @param checkpointInterval
+	 *    distance between indices of saved checkpoints; 0 disables checkpoints
+	 */
+	public FibonacciNaiveImpl(int checkpointInterval) {
+		this(checkpointInterval, DEFAULT_CHECKPOINT_BUDGET);
+	}
+
+	/**
+	 * Creates an implementation that saves checkpoints with the specified interval.
+	 *
+	 * @param checkpointInterval
+	 *    distance between indices of saved checkpoints; 0 disables checkpoints
+	 * @param checkpointBudget
+	 *    maximal total size of in-memory checkpoints in bytes
+	 */
+	public FibonacciNaiveImpl(int checkpointInterval, long checkpointBudget) {
 		super(NAME, DESCRIPTION, MAX_INDEX);
+		this.checkpointInterval = checkpointInterval;
+		this.checkpointBudget = checkpointBudget;
+		this.checkpoints.put(0, new BigInteger[] { BigInteger.ZERO, BigInteger.ONE });
+	}
+
+	/**
+	 * Sets the persistent store of checkpoints. Passes resume from saved checkpoints
+	 * and save new ones as they reach the corresponding indices.
+	 *
+	 * @param store
+	 *    checkpoint store, or <code>null</code> to use in-memory checkpoints only
+	 */
+	public void setCheckpoints(CheckpointStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Returns the in-memory checkpoint with the greatest index not exceeding the specified one,
+	 * marking it as recently used.
+	 */
+	private Map.Entry<Integer, BigInteger[]> nearestCheckpoint(int index) {
+		Map.Entry<Integer, BigInteger[]> checkpoint = this.checkpoints.floorEntry(index);
+		if (checkpoint.getKey() > 0) {
+			synchronized (this.checkpointSizes) {
+				this.checkpointSizes.get(checkpoint.getKey());
+			}
+		}
+		return checkpoint;
+	}
+
+	/**
+	 * Saves an in-memory checkpoint, evicting least recently used checkpoints if necessary.
+	 */
+	private void saveCheckpoint(int k, BigInteger a, BigInteger b) {
+		long size = CHECKPOINT_OVERHEAD + (a.bitLength() + b.bitLength()) / 8;
+		if (size > this.checkpointBudget) return;
+		if (this.checkpoints.putIfAbsent(k, new BigInteger[] { a, b }) != null) return;
+
+		synchronized (this.checkpointSizes) {
+			this.checkpointSizes.put(k, size);
+			this.checkpointBytes += size;
+
+			Iterator<Map.Entry<Integer, Long>> it = this.checkpointSizes.entrySet().iterator();
+			while ((this.checkpointBytes > this.checkpointBudget) && it.hasNext()) {
+				Map.Entry<Integer, Long> entry = it.next();
+				if (entry.getKey() != k) {
+					this.checkpoints.remove(entry.getKey());
+					this.checkpointBytes -= entry.getValue();
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/** Returns the total size of in-memory checkpoints in bytes. */
+	public long checkpointBytes() {
+		synchronized (this.checkpointSizes) {
+			return this.checkpointBytes;
+		}
+	}
+
+	/**
+	 * Computes Fibonacci numbers with the specified indices in a single pass.
+	 * The pass starts from the nearest checkpoint and jumps to a later checkpoint
+	 * whenever it is closer to the next requested index.
+	 *
+	 * @param indices
+	 *    non-negative indices sorted in ascending order
+	 * @return
+	 *    Fibonacci numbers with the corresponding indices
+	 * @throws CancellationException
+	 *    if the deadline of the current request is exceeded
+	 */
+	BigInteger[] sweep(int[] indices) {
+		BigInteger[] values = new BigInteger[indices.length];
+		CheckpointStore store = this.store;
+		Deadline deadline = Deadline.current();
+
+		int k = -1;
+		BigInteger a = null, b = null; // fib(k) and fib(k + 1)
+		for (int i = 0; i < indices.length; i++) {
+			int index = indices[i];
+
+			Map.Entry<Integer, BigInteger[]> checkpoint = this.nearestCheckpoint(index);
+			if (store != null) {
+				Map.Entry<Integer, BigInteger[]> saved = store.floor(index);
+				if ((saved != null) && (saved.getKey() > checkpoint.getKey())) checkpoint = saved;
+			}
+			if (checkpoint.getKey() > k) {
+				k = checkpoint.getKey();
+				a = checkpoint.getValue()[0];
+				b = checkpoint.getValue()[1];
+			}
+
+			while (k < index) {
+				BigInteger t = b;
+				b = a.add(b);
+				a = t;
+				k++;
+
+				if ((this.checkpointInterval > 0) && (k % this.checkpointInterval == 0)) {
+					this.saveCheckpoint(k, a, b);
+				}
+				if ((store != null) && store.isCheckpoint(k)) {
+					store.put(k, a, b);
+				}
+				if (k % DEADLINE_CHECK_INTERVAL == 0) {
+					deadline.check();
+				}
+			}
+			values[i] = a;
+		}
+
+		return values;
 	}
 
 	@Override
-	protected Response compute(int index) throws Exception {
-		BigInteger a = BigInteger.ZERO, b = BigInteger.ONE;
-		
-		for (int i = 1; i < index; i++) {
-			BigInteger t = b;
-			b = a.add(b);
-			a = t;
+	protected BigInteger compute(int index) {
+		return this.sweep(new int[] { index })[0];
+	}
+
+	@Override
+	protected Map<Integer, SequenceMember> computeAll(List<Integer> indices) {
+		int[] sorted = new int[indices.size()];
+		for (int i = 0; i < sorted.length; i++) sorted[i] = indices.get(i);
+		Arrays.sort(sorted);
+
+		Map<Integer, SequenceMember> members = new HashMap<Integer, SequenceMember>();
+		try {
+			BigInteger[] values = this.sweep(sorted);
+			for (int i = 0; i < sorted.length; i++) {
+				members.put(sorted[i], SequenceMember.of(values[i]));
+			}
+		} catch (CancellationException e) {
+			for (int index : sorted) {
+				members.put(index, SequenceMember.retryableError(e.getMessage()));
+			}
 		}
-		
-		String str = (index == 0) ? a.toString() : b.toString();
-		Response response = new Response();
-		response.stringVal(str);
-		return response;
+		return members;
+	}
+
+	@Override
+	protected MemberIterator iterate(int start, int step) {
+		return new FibonacciRangeIterator(this.sweep(new int[] { start, start + 1 }), step);
+	}
+
+	/**
+	 * Cost model: linear number of additions of numbers with linear length.
+	 */
+	@Override
+	protected double cost(int index) {
+		return (double) index * index;
+	}
+
+	/**
+	 * Cost model for ranges: members are computed incrementally, see {@link FibonacciRangeIterator}.
+	 */
+	@Override
+	protected double rangeCost(int start, int count, int step) {
+		return FibonacciRangeIterator.rangeCost(start, count, step);
 	}
 
 	@Override
@@ -0,0 +1,116 @@
+package demo.impl.seq;
+
+import java.math.BigInteger;
+
+import demo.impl.Deadline;
+import demo.impl.MemberIterator;
+import demo.impl.SequenceMember;
+
+/**
+ * Iterator over Fibonacci numbers with indices forming an arithmetic progression.
+ * The iterator keeps a pair of consecutive numbers [fib(n), fib(n+1)]; for small steps
+ * the pair is advanced using the definition, and for larger steps using identities
+ *     fib(n+s) = fib(n) fib(s-1) + fib(n+1) fib(s),
+ *     fib(n+s+1) = fib(n) fib(s) + fib(n+1) fib(s+1).
+ * The pair is advanced only when the next member is requested, so that a range does not
+ * pay for a step past its last member.
+ */
+class FibonacciRangeIterator implements MemberIterator {
+
+	/** Maximal step, for which the pair is advanced by additions. */
+	private static final int MAX_ADDITION_STEP = 16;
+
+	private final int step;
+
+	/** 
+	 * fib(s-1), fib(s) and fib(s+1) for the step s, or <code>null</code> for small steps
+	 * and before the pair is advanced for the first time.
+	 */
+	private BigInteger[] jump = null;
+
+	/** Current pair, fib(n) and fib(n+1), where n is the index of the last returned member. */
+	private BigInteger a, b;
+
+	/** Was the first member returned? */
+	private boolean started = false;
+
+	/**
+	 * Creates an iterator.
+	 * 
+	 * @param pair
+	 *    array [fib(start), fib(start + 1)], where start is the index of the first member
+	 * @param step
+	 *    positive difference between consecutive indices
+	 */
+	public FibonacciRangeIterator(BigInteger[] pair, int step) {
+		this.a = pair[0];
+		this.b = pair[1];
+		this.step = step;
+	}
+
+	/**
+	 * Estimates the cost of retrieving consecutive members from an iterator, in the units
+	 * of cost models of Fibonacci implementations: an addition of n-bit numbers costs n,
+	 * and a multiplication costs n^1.5.
+	 * 
+	 * @param start
+	 *    index of the first member
+	 * @param count
+	 *    number of members
+	 * @param step
+	 *    positive difference between consecutive indices
+	 * @return
+	 */
+	static double rangeCost(int start, int count, int step) {
+		double cost = 0;
+		for (int i = 0; i < count; i++) {
+			double n = start + (double) i * step;
+			cost += (step > MAX_ADDITION_STEP) ? 4 * Math.pow(n, 1.5) : step * n;
+		}
+		return cost;
+	}
+
+	/**
+	 * Returns the next member.
+	 * 
+	 * @throws java.util.concurrent.CancellationException
+	 *    if the deadline of the current request is exceeded; the iterator stays 
+	 *    at the same position in this case
+	 */
+	public SequenceMember next() {
+		if (this.started) {
+			this.advance();
+		}
+		this.started = true;
+		return SequenceMember.of(this.a);
+	}
+
+	/**
+	 * Advances the pair by the step. The pair is updated only once the computation completes.
+	 */
+	private void advance() {
+		Deadline deadline = Deadline.current();
+		deadline.check();
+
+		BigInteger a = this.a, b = this.b;
+		if (this.step <= MAX_ADDITION_STEP) {
+			for (int i = 0; i < this.step; i++) {
+				BigInteger t = b;
+				b = a.add(b);
+				a = t;
+			}
+		} else {
+			if (this.jump == null) {
+				BigInteger[] p = FibonacciDoublingImpl.pair(this.step - 1);
+				this.jump = new BigInteger[] { p[0], p[1], p[0].add(p[1]) };
+				deadline.check();
+			}
+			BigInteger[] jump = this.jump;
+			a = this.a.multiply(jump[0]).add(this.b.multiply(jump[1]));
+			b = this.a.multiply(jump[1]).add(this.b.multiply(jump[2]));
+		}
+
+		this.a = a;
+		this.b = b;
+	}
+}
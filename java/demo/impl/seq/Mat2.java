@@ -0,0 +1,65 @@
+package demo.impl.seq;
+
+import java.math.BigInteger;
+
+/**
+ * Immutable 2x2 matrix of big integers.
+ */
+class Mat2 {
+
+	public static final Mat2 IDENTITY = new Mat2(1, 0, 0, 1);
+
+	public final BigInteger a00;
+	public final BigInteger a01;
+	public final BigInteger a10;
+	public final BigInteger a11;
+
+	public Mat2(int a00, int a01, int a10, int a11) {
+		this.a00 = BigInteger.valueOf(a00);
+		this.a01 = BigInteger.valueOf(a01);
+		this.a10 = BigInteger.valueOf(a10);
+		this.a11 = BigInteger.valueOf(a11);
+	}
+
+	public Mat2(BigInteger a00, BigInteger a01, BigInteger a10, BigInteger a11) {
+		this.a00 = a00;
+		this.a01 = a01;
+		this.a10 = a10;
+		this.a11 = a11;
+	}
+
+	public Mat2 multiply(Mat2 other) {
+		return new Mat2(this.a00.multiply(other.a00).add(
+				this.a01.multiply(other.a10)), this.a00.multiply(other.a01)
+				.add(this.a01.multiply(other.a11)), this.a10
+				.multiply(other.a00).add(this.a11.multiply(other.a10)),
+				this.a10.multiply(other.a01).add(this.a11.multiply(other.a11)));
+	}
+
+	/**
+	 * Returns approximate size of this matrix in bytes.
+	 */
+	public long sizeBytes() {
+		return (this.a00.bitLength() + this.a01.bitLength() + this.a10.bitLength()
+				+ this.a11.bitLength()) / 8 + 4 * 32;
+	}
+
+	public Mat2 pow(int exponent) {
+		Mat2 matrix = Mat2.IDENTITY, square = this;
+
+		while (exponent > 0) {
+			if (exponent % 2 == 1) {
+				matrix = matrix.multiply(square);
+			}
+
+			exponent >>= 1;
+			if (exponent > 0) square = square.multiply(square);
+		}
+
+		return matrix;
+	}
+
+	public String toString() {
+		return String.format("[%d, %d, %d, %d]", a00, a01, a10, a11);
+	}
+}
@@ -0,0 +1,178 @@
+package demo.impl.seq;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import demo.impl.Deadline;
+
+/**
+ * Thread-safe cache of powers M^(2^k) of a fixed 2x2 matrix M, which is used
+ * for fast exponentation. The cache can be shared among concurrent requests.
+ *
+ * The total size of cached matrices is limited by a memory budget; when the budget
+ * is exceeded, least recently used powers are evicted. The matrix itself is never evicted.
+ */
+public class MatrixPowerCache {
+
+	/** Base matrix. */
+	private final Mat2 base;
+
+	/** Maximal total size of cached matrices in bytes. */
+	private final long budget;
+
+	/** Cached powers indexed by exponent (which is a power of two) in access order. */
+	private final LinkedHashMap<Integer, Mat2> powers = new LinkedHashMap<Integer, Mat2>(32, 0.75f, true);
+
+	/** Total size of cached matrices in bytes; guarded by this.powers. */
+	private long size = 0;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Creates a cache for the powers of the specified matrix.
+	 *
+	 * @param base
+	 *    matrix to raise to powers
+	 * @param budget
+	 *    maximal total size of cached matrices in bytes
+	 */
+	MatrixPowerCache(Mat2 base, long budget) {
+		this.base = base;
+		this.budget = budget;
+	}
+
+	/**
+	 * Gets a cached power of the base matrix.
+	 *
+	 * @param pow2
+	 *    exponent, which is a power of two
+	 * @return
+	 *    cached power or <code>null</code> if the power is absent from the cache
+	 */
+	private Mat2 get(int pow2) {
+		if (pow2 == 1) return this.base;
+		synchronized (this.powers) {
+			return this.powers.get(pow2);
+		}
+	}
+
+	/**
+	 * Stores a power of the base matrix in the cache, evicting other powers if necessary.
+	 */
+	private void put(int pow2, Mat2 matrix) {
+		long matrixSize = matrix.sizeBytes();
+		if (matrixSize > this.budget) return;
+
+		synchronized (this.powers) {
+			Mat2 old = this.powers.put(pow2, matrix);
+			if (old != null) {
+				this.size -= old.sizeBytes();
+			}
+			this.size += matrixSize;
+
+			Iterator<Map.Entry<Integer, Mat2>> it = this.powers.entrySet().iterator();
+			while ((this.size > this.budget) && it.hasNext()) {
+				Map.Entry<Integer, Mat2> entry = it.next();
+				if (entry.getKey() != pow2) {
+					this.size -= entry.getValue().sizeBytes();
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds a known power of the base matrix to the cache, e.g., one restored from a checkpoint.
+	 *
+	 * @param pow2
+	 *    exponent, which is a power of two
+	 * @param matrix
+	 *    power of the base matrix
+	 */
+	void preload(int pow2, Mat2 matrix) {
+		if (pow2 > 1) this.put(pow2, matrix);
+	}
+
+	/**
+	 * Returns the power M^pow2 of the base matrix M, where pow2 is a power of two.
+	 * Missing squares are computed from the largest available smaller power and cached.
+	 *
+	 * @param pow2
+	 *    exponent, which is a power of two
+	 * @return
+	 */
+	Mat2 power2(int pow2) {
+		int i = pow2;
+		Mat2 matrix = this.get(i);
+		if (matrix != null) {
+			this.hits.incrementAndGet();
+			return matrix;
+		}
+
+		this.misses.incrementAndGet();
+		while (matrix == null) {
+			i >>= 1;
+			matrix = this.get(i);
+		}
+
+		Deadline deadline = Deadline.current();
+		while (i < pow2) {
+			deadline.check();
+			i <<= 1;
+			matrix = matrix.multiply(matrix);
+			this.put(i, matrix);
+		}
+		return matrix;
+	}
+
+	/**
+	 * Raises the base matrix to the specified power using cached squares.
+	 *
+	 * @param exponent
+	 *    non-negative exponent
+	 * @return
+	 */
+	Mat2 pow(int exponent) {
+		Mat2 matrix = Mat2.IDENTITY;
+		Deadline deadline = Deadline.current();
+
+		int pow2 = 1;
+		while (exponent > 0) {
+			deadline.check();
+			if (exponent % 2 == 1) {
+				matrix = matrix.multiply(this.power2(pow2));
+			}
+
+			exponent >>= 1;
+			pow2 <<= 1;
+		}
+
+		return matrix;
+	}
+
+	/** Returns the number of lookups of powers that were found in the cache. */
+	public long hits() {
+		return this.hits.get();
+	}
+
+	/** Returns the number of lookups of powers that had to be computed. */
+	public long misses() {
+		return this.misses.get();
+	}
+
+	/** Returns the total size of cached matrices in bytes. */
+	public long sizeBytes() {
+		synchronized (this.powers) {
+			return this.size;
+		}
+	}
+
+	/** Returns the memory budget of the cache in bytes. */
+	public long budget() {
+		return this.budget;
+	}
+}
@@ -0,0 +1,157 @@
+package demo.impl.seq;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import demo.impl.ComputeExecutor;
+import demo.impl.Deadline;
+
+/**
+ * Deterministic search of probable primes with the specified bit length.
+ * 
+ * <p>For every bit length, the search inspects a fixed stream of odd candidates starting
+ * from a pseudo-random number derived from the bit length only, so that identical requests
+ * yield identical primes regardless of concurrent requests. Candidates are inspected in windows;
+ * multiples of small primes are sieved out from a window, and the remaining candidates
+ * are tested for primality in parallel. The first prime in the stream order is returned.</p>
+ */
+class PrimeSearch {
+
+	/** Certainty of primality tests; same as in {@link BigInteger#probablePrime(int, Random)}. */
+	private static final int CERTAINTY = 100;
+	
+	/** Odd primes used to sieve candidates. */
+	private static final int[] SMALL_PRIMES = PrimeSieve.oddPrimesUpTo(1 << 16);
+	
+	/** Minimal bit length of primes, for which candidates are sieved. */
+	private static final int SIEVE_MIN_BITS = 24;
+	
+	/** Minimal number of odd candidates in a window. */
+	private static final int MIN_WINDOW = 64;
+	
+	/**
+	 * Finds a probable prime with the specified bit length.
+	 * 
+	 * @param bitLength
+	 *    bit length of the prime
+	 * @return
+	 *    probable prime
+	 * @throws ArithmeticException
+	 *    if the bit length is less than 2
+	 * @throws CancellationException
+	 *    if the deadline of the current request is exceeded
+	 */
+	public static BigInteger find(int bitLength) {
+		if (bitLength < 2) {
+			throw new ArithmeticException("bitLength < 2");
+		}
+		
+		Deadline deadline = Deadline.current();
+		Random random = new Random(bitLength);
+		while (true) {
+			BigInteger start = new BigInteger(bitLength, random).setBit(bitLength - 1).setBit(0);
+			BigInteger prime = (bitLength < SIEVE_MIN_BITS) 
+					? searchSmall(start, bitLength) 
+					: searchLarge(start, bitLength, deadline);
+			if (prime != null) return prime;
+			// The stream has left the bit length without finding a prime; restart it
+		}
+	}
+	
+	/**
+	 * Searches a prime sequentially among odd numbers not less than the start.
+	 * 
+	 * @return
+	 *    prime, or <code>null</code> if there are no primes with the specified bit length
+	 *    following the start
+	 */
+	private static BigInteger searchSmall(BigInteger start, int bitLength) {
+		for (BigInteger n = start; n.bitLength() == bitLength; n = n.add(BigInteger.valueOf(2))) {
+			if (n.isProbablePrime(CERTAINTY)) return n;
+		}
+		return null;
+	}
+	
+	/**
+	 * Searches a prime among odd numbers not less than the start, window by window.
+	 * 
+	 * @return
+	 *    prime, or <code>null</code> if there are no primes with the specified bit length
+	 *    following the start
+	 */
+	private static BigInteger searchLarge(BigInteger start, int bitLength, Deadline deadline) {
+		// Primes are spaced by (bitLength * ln 2) on average, i.e., by ~0.35 * bitLength odd numbers
+		int window = Math.max(bitLength, MIN_WINDOW);
+		
+		for (BigInteger base = start; base.bitLength() == bitLength; 
+				base = base.add(BigInteger.valueOf(2L * window))) {
+			
+			BigInteger prime = searchWindow(base, window, deadline);
+			if ((prime != null) && (prime.bitLength() == bitLength)) return prime;
+		}
+		return null;
+	}
+	
+	/**
+	 * Searches the first prime among odd numbers base, base + 2, ..., base + 2 * (window - 1).
+	 * The base must be greater than all primes in {@link #SMALL_PRIMES}.
+	 * 
+	 * @return
+	 *    prime, or <code>null</code> if there are no primes in the window
+	 * @throws CancellationException
+	 *    if the deadline is exceeded
+	 */
+	private static BigInteger searchWindow(final BigInteger base, int window, final Deadline deadline) {
+		deadline.check();
+
+		BitSet composite = new BitSet(window);
+		for (int p : SMALL_PRIMES) {
+			// base + 2k = 0 (mod p)  <=>  k = -base / 2 = (p - base mod p) * (p + 1) / 2 (mod p)
+			long r = base.mod(BigInteger.valueOf(p)).longValue();
+			int k = (int) ((p - r) * ((p + 1) / 2) % p);
+			for (; k < window; k += p) composite.set(k);
+		}
+		
+		// Index of the first prime found in the window; candidates after it are skipped
+		final AtomicInteger found = new AtomicInteger(Integer.MAX_VALUE);
+		// The result does not depend on the order of tests, only the amount of wasted work does
+		ForkJoinPool pool = ComputeExecutor.parallelPool();
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int k = composite.nextClearBit(0); k < window; k = composite.nextClearBit(k + 1)) {
+			final int offset = k;
+			futures.add(pool.submit(new Runnable() {
+				
+				public void run() {
+					if ((found.get() < offset) || deadline.isExceeded()) return;
+					BigInteger candidate = base.add(BigInteger.valueOf(2L * offset));
+					if (candidate.isProbablePrime(CERTAINTY)) {
+						int current;
+						do {
+							current = found.get();
+						} while ((offset < current) && !found.compareAndSet(current, offset));
+					}
+				}
+			}));
+		}
+		
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException | ExecutionException e) {
+				throw new IllegalStateException("Failed to test primality", e);
+			}
+		}
+		
+		deadline.check();
+		int offset = found.get();
+		return (offset == Integer.MAX_VALUE) ? null : base.add(BigInteger.valueOf(2L * offset));
+	}
+}
@@ -0,0 +1,222 @@
+package demo.impl.seq;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import demo.impl.ComputeExecutor;
+import demo.impl.Deadline;
+
+/**
+ * Segmented sieve of Eratosthenes over odd numbers, which grows on demand.
+ * 
+ * The sieve is a bitset, in which bit i is set iff 2i + 1 is prime. The bitset is extended
+ * in segments, which fit into the CPU cache and are sieved in parallel. For each block 
+ * of {@link #BLOCK_WORDS} words, the sieve stores the number of primes in preceding blocks,
+ * so the n-th prime is found with a binary search over blocks and a scan of a single block.
+ */
+class PrimeSieve {
+
+	/** Number of 64-bit words in a segment (32 KB). */
+	private static final int SEGMENT_WORDS = 1 << 12;
+	
+	/** Number of 64-bit words in an index block. */
+	private static final int BLOCK_WORDS = 64;
+	
+	/** Immutable snapshot of the sieve, which can be read without locking. */
+	private static class State {
+		
+		/** Bitset of odd primes. */
+		public final long[] bits;
+		
+		/** blockCounts[b] is the number of odd primes in blocks before b. */
+		public final int[] blockCounts;
+		
+		/** Total number of odd primes in the sieve. */
+		public final int count;
+		
+		public State(long[] bits, int[] blockCounts, int count) {
+			this.bits = bits;
+			this.blockCounts = blockCounts;
+			this.count = count;
+		}
+	}
+	
+	private volatile State state = new State(new long[0], new int[0], 0);
+	
+	/**
+	 * Estimates an upper bound for the n-th prime (1-based, i.e., p(1) = 2).
+	 * Uses the bound p(n) < n (ln n + ln ln n) valid for n >= 6.
+	 */
+	static long upperBound(long n) {
+		if (n < 6) return 13;
+		double ln = Math.log(n);
+		return (long) Math.ceil(n * (ln + Math.log(ln))) + 1;
+	}
+	
+	/**
+	 * Returns the n-th prime number (1-based, i.e., prime(1) = 2), extending the sieve if necessary.
+	 * 
+	 * @param n
+	 *    positive number of the prime
+	 * @return
+	 */
+	public long prime(int n) {
+		if (n == 1) return 2;
+		
+		// The (n-1)-th odd prime
+		int k = n - 1;
+		State state = this.state;
+		if (state.count < k) {
+			state = this.extend(upperBound(n));
+		}
+		return select(state, k);
+	}
+	
+	/**
+	 * Finds the k-th set bit (1-based) in the sieve and returns the corresponding number.
+	 */
+	private static long select(State state, int k) {
+		int[] counts = state.blockCounts;
+		
+		// The last block, before which there are less than k primes
+		int lo = 0, hi = counts.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (counts[mid] < k) lo = mid; else hi = mid - 1;
+		}
+		
+		int remaining = k - counts[lo];
+		for (int w = lo * BLOCK_WORDS; ; w++) {
+			long word = state.bits[w];
+			int bitCount = Long.bitCount(word);
+			if (remaining <= bitCount) {
+				for (int i = 1; i < remaining; i++) word &= word - 1;
+				long bit = (long) w * 64 + Long.numberOfTrailingZeros(word);
+				return 2 * bit + 1;
+			}
+			remaining -= bitCount;
+		}
+	}
+	
+	/**
+	 * Extends the sieve to cover numbers up to the specified limit. If the deadline
+	 * of the current request is exceeded, the sieve remains unchanged.
+	 * 
+	 * @param limit
+	 *    maximal number to cover
+	 * @return
+	 *    new state of the sieve
+	 * @throws java.util.concurrent.CancellationException
+	 *    if the deadline of the current request is exceeded
+	 */
+	private synchronized State extend(long limit) {
+		State state = this.state;
+		long words = (limit / 2) / 64 + 1;
+		if (words <= state.bits.length) return state;
+		// Grow geometrically, so that a series of increasing requests does not copy the bitset too often
+		words = Math.max(words, state.bits.length + state.bits.length / 2);
+		words = (words + SEGMENT_WORDS - 1) / SEGMENT_WORDS * SEGMENT_WORDS;
+		if (words <= state.bits.length) return state;
+		if (words > Integer.MAX_VALUE - SEGMENT_WORDS) {
+			throw new IllegalArgumentException("Sieve is too large");
+		}
+		
+		final long[] bits = Arrays.copyOf(state.bits, (int) words);
+		final int[] basePrimes = oddPrimesUpTo((long) Math.sqrt(2.0 * 64 * words) + 1);
+		final Deadline deadline = Deadline.current();
+		
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int start = state.bits.length; start < bits.length; start += SEGMENT_WORDS) {
+			final int segment = start;
+			tasks.add(new Callable<Void>() {
+				
+				public Void call() {
+					if (!deadline.isExceeded()) sieveSegment(bits, segment, basePrimes);
+					return null;
+				}
+			});
+		}
+		for (Future<Void> future : ComputeExecutor.parallelPool().invokeAll(tasks)) {
+			try {
+				future.get();
+			} catch (InterruptedException | ExecutionException e) {
+				throw new IllegalStateException("Failed to sieve primes", e);
+			}
+		}
+		deadline.check();
+		
+		int blocks = bits.length / BLOCK_WORDS;
+		int[] blockCounts = Arrays.copyOf(state.blockCounts, blocks);
+		int count = state.count;
+		for (int b = state.blockCounts.length; b < blocks; b++) {
+			blockCounts[b] = count;
+			for (int w = b * BLOCK_WORDS; w < (b + 1) * BLOCK_WORDS; w++) {
+				count += Long.bitCount(bits[w]);
+			}
+		}
+		
+		this.state = new State(bits, blockCounts, count);
+		return this.state;
+	}
+	
+	/**
+	 * Sieves a single segment of the bitset.
+	 * 
+	 * @param bits
+	 *    bitset
+	 * @param start
+	 *    index of the first word of the segment
+	 * @param basePrimes
+	 *    odd primes up to the square root of the maximal number in the bitset
+	 */
+	private static void sieveSegment(long[] bits, int start, int[] basePrimes) {
+		int end = start + SEGMENT_WORDS;
+		Arrays.fill(bits, start, end, -1L);
+		if (start == 0) bits[0] &= ~1L; // 1 is not prime
+		
+		long firstBit = (long) start * 64, endBit = (long) end * 64;
+		for (int p : basePrimes) {
+			// Start from p^2 or the first odd multiple of p in the segment
+			long firstNumber = 2 * firstBit + 1;
+			long m = Math.max((long) p * p, (firstNumber + p - 1) / p * p);
+			if (m % 2 == 0) m += p;
+			
+			for (long bit = (m - 1) / 2; bit < endBit; bit += p) {
+				bits[(int) (bit >>> 6)] &= ~(1L << bit);
+			}
+		}
+	}
+	
+	/**
+	 * Computes odd primes up to the specified number with a plain sieve.
+	 */
+	static int[] oddPrimesUpTo(long max) {
+		int n = (int) max;
+		boolean[] composite = new boolean[n + 1];
+		int[] primes = new int[n / 2 + 1];
+		int count = 0;
+		for (int i = 3; i <= n; i += 2) {
+			if (composite[i]) continue;
+			primes[count++] = i;
+			for (long j = (long) i * i; j <= n; j += 2 * i) {
+				composite[(int) j] = true;
+			}
+		}
+		return Arrays.copyOf(primes, count);
+	}
+	
+	/** Returns the number of primes covered by the sieve. */
+	public int count() {
+		return this.state.count + 1;
+	}
+	
+	/** Returns the size of the sieve in bytes. */
+	public long sizeBytes() {
+		State state = this.state;
+		return 8L * state.bits.length + 4L * state.blockCounts.length;
+	}
+}
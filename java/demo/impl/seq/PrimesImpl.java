@@ -0,0 +1,47 @@
+package demo.impl.seq;
+
+import java.math.BigInteger;
+
+import demo.impl.IntegerSequenceImpl;
+import demo.impl.Name;
+
+/**
+ * Prime numbers implemented with a segmented sieve of Eratosthenes.
+ */
+public class PrimesImpl extends IntegerSequenceImpl {
+
+	public static final String NAME = "Primes (Java)";
+	public static final String DESCRIPTION = 
+			"Prime numbers: primes(0) = 2, primes(1) = 3, primes(2) = 5, ...\n" +
+			"This implementation in Java uses a segmented sieve of Eratosthenes over odd numbers,\n" +
+			"which is extended in parallel as larger primes are requested.\n" +
+			"\n" +
+			"See http://en.wikipedia.org/wiki/Sieve_of_Eratosthenes, http://oeis.org/A000040";
+	public static final int MAX_INDEX = 50000000;
+
+	/** Sieve shared among all requests. */
+	private final PrimeSieve sieve = new PrimeSieve();
+
+	public PrimesImpl() {
+		super(NAME, DESCRIPTION, MAX_INDEX);
+	}
+
+	@Override
+	protected BigInteger compute(int index) {
+		return BigInteger.valueOf(this.sieve.prime(index + 1));
+	}
+
+	/**
+	 * Cost model: sieve up to the n-th prime ~ n ln n; the sieve is reused by subsequent requests,
+	 * so this is an upper estimate.
+	 */
+	@Override
+	protected double cost(int index) {
+		return index * Math.log(index + 2);
+	}
+
+	@Override
+	public Name corbaName() {
+		return new Name("primes", "java");
+	}
+}
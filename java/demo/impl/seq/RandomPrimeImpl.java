@@ -1,9 +1,7 @@
 package demo.impl.seq;
 
 import java.math.BigInteger;
-import java.util.Random;
 
-import demo.Response;
 import demo.impl.IntegerSequenceImpl;
 import demo.impl.Name;
 
@@ -15,23 +13,26 @@ public class RandomPrimeImpl extends IntegerSequenceImpl  {
 	public static final String NAME = "Random primes (Java)";
 	public static final String DESCRIPTION = 
 		"Returns probably prime number with the given bit length.\n" +
-		"This implementation uses BigInteger.probablePrime method for calculations.";
+		"This implementation searches primes among pseudo-random odd numbers determined by the bit length;\n" +
+		"candidates are sieved by small primes and tested for primality in parallel.";
 	public static final int MAX_INDEX = 5000;
 	
-	private final Random random;
-	
 	public RandomPrimeImpl() {
 		super(NAME, DESCRIPTION, MAX_INDEX);
-		this.random = new Random();
 	}
 
 	@Override
-	protected Response compute(int index) throws Exception {
-		this.random.setSeed(0); // Maintain same responses for identical requests
-		String str = BigInteger.probablePrime(index, this.random).toString();
-		Response response = new Response();
-		response.stringVal(str);
-		return response;
+	protected BigInteger compute(int index) throws Exception {
+		return PrimeSearch.find(index);
+	}
+
+	/**
+	 * Cost model: the number of tested candidates is linear in the bit length; a primality test
+	 * performs a linear number of multiplications of numbers with the bit length.
+	 */
+	@Override
+	protected double cost(int index) {
+		return Math.pow(index, 3.5);
 	}
 
 	@Override